@@ -21,9 +21,11 @@ package com.example.myapplication;
 import android.app.Activity;
 import android.content.Context;
 import android.os.Bundle;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.CompoundButton;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Switch;
 import android.widget.TextView;
@@ -31,21 +33,28 @@ import android.widget.Toast;
 
 import com.example.myapplication.datacomplex.BaseItemComplex;
 import com.example.myapplication.datacomplex.DataProviderComplex;
+import com.example.myapplication.datacomplex.NameIndex;
 import com.example.myapplication.multilevellistview.ItemInfo;
 import com.example.myapplication.multilevellistview.MultiLevelListAdapter;
 import com.example.myapplication.multilevellistview.MultiLevelListView;
 import com.example.myapplication.multilevellistview.NestType;
 import com.example.myapplication.multilevellistview.OnItemClickListener;
+import com.example.myapplication.multilevellistview.SelectionState;
 import com.example.myapplication.views.LevelBeamView;
 
 import java.text.NumberFormat;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Function;
 
 public class DataActivityComplex extends Activity {
 
     private MultiLevelListView mListView;
+    private ListAdapter mListAdapter;
     private Switch mReportMode;
     private Switch mApplicationMode;
+    private EditText mSearch;
+    private NameIndex mDisplayedIndex;
 
 //    private boolean mAlwaysExpandend;
 
@@ -70,16 +79,24 @@ public class DataActivityComplex extends Activity {
         mListView = (MultiLevelListView) findViewById(R.id.listView);
         mReportMode = (Switch) findViewById(R.id.reportMode);
         mApplicationMode = (Switch) findViewById(R.id.applicationMode);
+        mSearch = (EditText) findViewById(R.id.search);
 
-        ListAdapter listAdapter = new ListAdapter();
+        mListAdapter = new ListAdapter();
 
-        mListView.setAdapter(listAdapter);
+        mListView.setAdapter(mListAdapter);
         mListView.setOnItemClickListener(mOnItemClickListener);
 
         mReportMode.setOnCheckedChangeListener(mOnCheckedChangeListener);
         mApplicationMode.setOnCheckedChangeListener(mOnCheckedChangeListener);
+        mSearch.setOnEditorActionListener(mOnSearchListener);
 
-        listAdapter.setDataItems(DataProviderComplex.getInstance(mApplicationMode.isChecked()).getSubItems());
+        showDataItems();
+    }
+
+    private void showDataItems() {
+        mListAdapter.setDataItems(DataProviderComplex.getInstance(mApplicationMode.isChecked()).getSubItems());
+        // keys of replaced items are taken from the index they were displayed with
+        mDisplayedIndex = DataProviderComplex.getNameIndex();
     }
 
     private CompoundButton.OnCheckedChangeListener mOnCheckedChangeListener = new CompoundButton.OnCheckedChangeListener() {
@@ -88,23 +105,50 @@ public class DataActivityComplex extends Activity {
         public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
             if (buttonView.getId() == R.id.reportMode) {
                 mReportMode.setChecked(isChecked);
-                mListView.notifyDataSetChanged();
+                // report mode shows the biggest values first
+                mListAdapter.setSortOrder(isChecked ? mValueSortKey : null, Collections.<Double>reverseOrder());
             } else if (buttonView.getId() == R.id.applicationMode) {
                 if (mApplicationMode.isChecked()) {
                     mApplicationMode.setText("Simplified mode");
                 } else {
                     mApplicationMode.setText("Normal mode");
                 }
-                ListAdapter listAdapter = new ListAdapter();
-                mListView.setAdapter(listAdapter);
-                listAdapter.setDataItems(DataProviderComplex.getInstance(mApplicationMode.isChecked()).getSubItems());
+                // items are matched by their path of names, so expanded items stay expanded
+                showDataItems();
                 mApplicationMode.setChecked(isChecked);
-                mListView.notifyDataSetChanged();
             }
         }
     };
 
 
+    private TextView.OnEditorActionListener mOnSearchListener = new TextView.OnEditorActionListener() {
+
+        @Override
+        public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+            String query = v.getText().toString();
+            NameIndex nameIndex = DataProviderComplex.getNameIndex();
+            // parents are found before their childrens, so the least nested match is shown
+            List<BaseItemComplex> found = nameIndex.find(query, 1);
+            int pos = found.isEmpty() ? -1 : mListAdapter.extendPath(nameIndex.getPath(found.get(0)));
+            if (pos < 0) {
+                Toast.makeText(DataActivityComplex.this, "\"" + query + "\" not found", Toast.LENGTH_SHORT).show();
+            } else if (mListView.getRecyclerView() != null) {
+                mListView.getRecyclerView().scrollToPosition(pos);
+            } else {
+                mListView.getListView().setSelection(pos);
+            }
+            return true;
+        }
+    };
+
+    private Function<Object, Double> mValueSortKey = new Function<Object, Double>() {
+
+        @Override
+        public Double apply(Object object) {
+            return ((BaseItemComplex) object).getValueWithChildrens();
+        }
+    };
+
     private OnItemClickListener mOnItemClickListener = new OnItemClickListener() {
 
         private void showItemDescription(Object object, ItemInfo itemInfo) {
@@ -146,8 +190,23 @@ public class DataActivityComplex extends Activity {
 
         @Override
         protected Object getParent(Object object) {
-            assert 1 == 1;
-            return null;
+            return DataProviderComplex.getParent((BaseItemComplex) object);
+        }
+
+        @Override
+        protected Object getKey(Object object) {
+            // names are unique among siblings only, so the key is the path of names
+            BaseItemComplex item = (BaseItemComplex) object;
+            List<BaseItemComplex> path = (mDisplayedIndex != null) ? mDisplayedIndex.getPath(item)
+                    : Collections.<BaseItemComplex>emptyList();
+            if (path.isEmpty()) {
+                path = DataProviderComplex.getNameIndex().getPath(item);
+            }
+            StringBuilder key = new StringBuilder();
+            for (BaseItemComplex pathItem : path) {
+                key.append('/').append(pathItem.getName());
+            }
+            return key.toString();
         }
 
         @Override
@@ -192,9 +251,13 @@ public class DataActivityComplex extends Activity {
                 public void onClick(View v)
                 {
                     BaseItemComplex item = (BaseItemComplex) v.getTag(R.string.tag_node);
-                    Toast.makeText(DataActivityComplex.this, "Item Select"+item.getName(), Toast.LENGTH_SHORT).show();
+                    getSelectionModel().toggle(item);
                 }
             });
+            SelectionState selectionState = getSelectionModel().getState(item);
+            viewHolder.selectView.setImageResource(selectionState == SelectionState.UNCHECKED ?
+                    android.R.drawable.checkbox_off_background : android.R.drawable.checkbox_on_background);
+            viewHolder.selectView.setAlpha(selectionState == SelectionState.PARTIAL ? 0.5f : 1.0f);
 
             if (itemInfo.isExpandable()) {
                 viewHolder.arrowView.setVisibility(View.VISIBLE);
@@ -18,6 +18,7 @@
 
 package com.example.myapplication.datacomplex;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -52,12 +53,18 @@ public class BaseItemComplex {
     public void setValue(Double value) { mvalue = value ;}
 
     public Double getValueWithChildrens(){
-        Double total = 0.0;
-        if (!hasChildren()) {
-            total = mvalue;
-        } else {
-            for (BaseItemComplex item : mChildrens) {
-                total = total + item.getValueWithChildrens();
+        // sum of leaf values, walked with an explicit stack so deep trees don't overflow
+        double total = 0.0;
+        ArrayDeque<BaseItemComplex> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            BaseItemComplex item = stack.pop();
+            if (!item.hasChildren()) {
+                total += item.mvalue;
+            } else {
+                for (BaseItemComplex child : item.mChildrens) {
+                    stack.push(child);
+                }
             }
         }
         return total;
@@ -18,6 +18,7 @@ import java.util.List;
 public class DataProviderComplex {
 
     private static List<BaseItemComplex> mItems;
+    private static NameIndex mNameIndex;
     private static DataProviderComplex instance;
     private static boolean mWithSelf = false;
     private static Context mContext;
@@ -54,6 +55,7 @@ public class DataProviderComplex {
         try {
             JSONArray jsonArrayStringList = new JSONArray(jsonStringList);
             mItems = parseJSONArray(jsonArrayStringList, withSelf);
+            mNameIndex = new NameIndex(mItems);
         } catch (JSONException ex) {
             throw new RuntimeException(ex);
         }
@@ -64,8 +66,38 @@ public class DataProviderComplex {
     }
 
     private List<BaseItemComplex> parseJSONArray(JSONArray jsonArray, boolean withSelf) {
-        int length = jsonArray.length();
         List<BaseItemComplex> items = new ArrayList<>();
+        // items with childrens, parents always before their childrens
+        List<BaseItemComplex> parents = new ArrayList<>();
+        List<JSONArray> parentChildrens = new ArrayList<>();
+
+        parseJSONItems(jsonArray, items, parents, parentChildrens);
+        for (int i = 0; i < parents.size(); i++) {
+            List<BaseItemComplex> childrens = new ArrayList<>();
+            parseJSONItems(parentChildrens.get(i), childrens, parents, parentChildrens);
+            parents.get(i).setChildren(childrens);
+        }
+
+        if (withSelf) {
+            // childrens first, so their values already include their own childrens
+            for (int i = parents.size() - 1; i >= 0; i--) {
+                BaseItemComplex item = parents.get(i);
+                if (item.hasChildren()) {
+                    item.addChildren(0,(new BaseItemComplex("_"+item.getName(), item.getValue())));
+                    double total = 0.0;
+                    for (BaseItemComplex child : item.getChildren()) {
+                        total += child.getValue();
+                    }
+                    item.setValue(total);
+                }
+            }
+        }
+        return items;
+    }
+
+    private void parseJSONItems(JSONArray jsonArray, List<BaseItemComplex> items,
+                                List<BaseItemComplex> parents, List<JSONArray> parentChildrens) {
+        int length = jsonArray.length();
 
         for (int i = 0; i < length; i++) {
             try {
@@ -73,12 +105,8 @@ public class DataProviderComplex {
                 BaseItemComplex item = new BaseItemComplex(itemObject.getString("title"), itemObject.getDouble("value"));
 
                 if (itemObject.has("childrens")) {
-                    item.setChildren(parseJSONArray(itemObject.getJSONArray("childrens"), withSelf));
-                    if (withSelf && item.hasChildren()) {
-                            item.addChildren(0,(new BaseItemComplex("_"+item.getName(), item.getValue())));
-                        item.setValue(0.0);
-                        item.setValue(item.getValueWithChildrens());
-                    }
+                    parents.add(item);
+                    parentChildrens.add(itemObject.getJSONArray("childrens"));
                 }
 
                 items.add(item);
@@ -88,7 +116,6 @@ public class DataProviderComplex {
             }
 
         }
-        return items;
     }
 
     public static List<BaseItemComplex> getSubItems(BaseItemComplex item) {
@@ -101,6 +128,14 @@ public class DataProviderComplex {
     }
 
 
+    public static NameIndex getNameIndex() {
+        return mNameIndex;
+    }
+
+    public static BaseItemComplex getParent(BaseItemComplex item) {
+        return mNameIndex.getParent(item);
+    }
+
     public static boolean isExpandable(BaseItemComplex item) {
         return item.hasChildren();
     }
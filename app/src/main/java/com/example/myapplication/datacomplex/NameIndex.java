@@ -0,0 +1,244 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.datacomplex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of item names, built once after items are parsed.
+ *
+ * Queries of at least 3 characters match any part of the name, using posting lists of name
+ * trigrams. Shorter queries match beginning of the name, using posting lists of name prefixes.
+ * Parents of items are kept, so a match is turned into the path used to expand the list.
+ */
+public class NameIndex {
+
+    private static final int GRAM = 3;
+    private static final long PREFIX = 1L << 62;
+
+    private final BaseItemComplex[] mItems;
+    private final int[] mParents;
+    private final String[] mNames;
+    private final Map<BaseItemComplex, Integer> mIds = new IdentityHashMap<>();
+    private final Map<Long, int[]> mPostings = new HashMap<>();
+
+    public NameIndex(List<BaseItemComplex> items) {
+        // items are numbered level by level, parents before their childrens
+        List<BaseItemComplex> all = new ArrayList<>(items);
+        List<Integer> parents = new ArrayList<>(Collections.nCopies(items.size(), -1));
+        for (int i = 0; i < all.size(); i++) {
+            for (BaseItemComplex child : all.get(i).getChildren()) {
+                all.add(child);
+                parents.add(i);
+            }
+        }
+
+        int count = all.size();
+        mItems = all.toArray(new BaseItemComplex[count]);
+        mParents = new int[count];
+        mNames = new String[count];
+
+        // grams are numbered, then ids are counted and placed per gram number
+        Map<Long, Integer> gramNumbers = new HashMap<>();
+        List<Long> grams = new ArrayList<>();
+        int[] gramCounts = new int[64];
+        int[] lastIds = new int[64];
+        int[] pairs = new int[64];
+        int pairCount = 0;
+        for (int id = 0; id < count; id++) {
+            mParents[id] = parents.get(id);
+            mNames[id] = mItems[id].getName().toLowerCase(Locale.ROOT);
+            mIds.put(mItems[id], id);
+
+            String name = mNames[id];
+            int nameGrams = Math.max(name.length() - GRAM + 1, 0) + Math.min(name.length(), GRAM - 1);
+            for (int i = 0; i < nameGrams; i++) {
+                Long gram = (i < GRAM - 1) ? prefix(name, i + 1) : gram(name, i - GRAM + 1);
+                Integer number = gramNumbers.get(gram);
+                if (number == null) {
+                    number = grams.size();
+                    gramNumbers.put(gram, number);
+                    grams.add(gram);
+                    if (number == gramCounts.length) {
+                        gramCounts = Arrays.copyOf(gramCounts, number * 2);
+                        lastIds = Arrays.copyOf(lastIds, number * 2);
+                    }
+                } else if (lastIds[number] == id) {
+                    // gram repeated within the name is stored once
+                    continue;
+                }
+                lastIds[number] = id;
+                gramCounts[number]++;
+                if (pairCount + 2 > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[pairCount++] = number;
+                pairs[pairCount++] = id;
+            }
+        }
+
+        int[][] postings = new int[grams.size()][];
+        for (int number = 0; number < postings.length; number++) {
+            postings[number] = new int[gramCounts[number]];
+            gramCounts[number] = 0;
+        }
+        for (int i = 0; i < pairCount; i += 2) {
+            int number = pairs[i];
+            postings[number][gramCounts[number]++] = pairs[i + 1];
+        }
+        for (int number = 0; number < postings.length; number++) {
+            mPostings.put(grams.get(number), postings[number]);
+        }
+    }
+
+    private static long gram(String text, int start) {
+        long gram = 0;
+        for (int i = start; i < start + GRAM; i++) {
+            gram = (gram << 16) | text.charAt(i);
+        }
+        return gram;
+    }
+
+    private static long prefix(String text, int length) {
+        long prefix = PREFIX | ((long) length << 48);
+        for (int i = 0; i < length; i++) {
+            prefix |= (long) text.charAt(i) << (16 * i);
+        }
+        return prefix;
+    }
+
+    /**
+     * Finds items which names contain the query, ignoring case. Queries shorter than 3
+     * characters match beginning of names.
+     *
+     * @param query Query text.
+     * @param limit Maximal number of returned items.
+     * @return Matching items, parents before their childrens.
+     */
+    public List<BaseItemComplex> find(String query, int limit) {
+        String text = query.toLowerCase(Locale.ROOT);
+        List<BaseItemComplex> result = new ArrayList<>();
+        if (text.isEmpty()) {
+            return result;
+        }
+        if (text.length() < GRAM) {
+            int[] ids = mPostings.get(prefix(text, text.length()));
+            for (int i = 0; ids != null && i < ids.length && result.size() < limit; i++) {
+                result.add(mItems[ids[i]]);
+            }
+            return result;
+        }
+
+        int grams = text.length() - GRAM + 1;
+        int[][] lists = new int[grams][];
+        for (int i = 0; i < grams; i++) {
+            lists[i] = mPostings.get(gram(text, i));
+            if (lists[i] == null) {
+                return result;
+            }
+        }
+        // candidates are narrowed starting from the shortest list
+        Arrays.sort(lists, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] first, int[] second) {
+                return first.length - second.length;
+            }
+        });
+        int[] candidates = lists[0].clone();
+        int size = candidates.length;
+        for (int i = 1; i < grams && size > 0; i++) {
+            size = retainAll(candidates, size, lists[i]);
+        }
+        for (int i = 0; i < size && result.size() < limit; i++) {
+            int id = candidates[i];
+            if (mNames[id].contains(text)) {
+                result.add(mItems[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keeps only candidates present in the list. Both are sorted, the list is searched
+     * with exponential search from the previous position.
+     *
+     * @param candidates Candidate ids, filtered in place.
+     * @param size Number of candidates.
+     * @param list Posting list.
+     * @return Number of remaining candidates.
+     */
+    private static int retainAll(int[] candidates, int size, int[] list) {
+        int retained = 0;
+        int pos = 0;
+        for (int i = 0; i < size && pos < list.length; i++) {
+            int id = candidates[i];
+            int step = 1;
+            int high = pos;
+            while (high < list.length && list[high] < id) {
+                pos = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(list, pos, Math.min(high + 1, list.length), id);
+            if (found >= 0) {
+                candidates[retained++] = id;
+                pos = found + 1;
+            } else {
+                pos = -found - 1;
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Gets parent of the item.
+     *
+     * @param item The item.
+     * @return Parent item, null for top level items and not indexed items.
+     */
+    public BaseItemComplex getParent(BaseItemComplex item) {
+        Integer id = mIds.get(item);
+        return (id != null && mParents[id] >= 0) ? mItems[mParents[id]] : null;
+    }
+
+    /**
+     * Gets path of the item, which can be passed to MultiLevelListAdapter.extendPath.
+     *
+     * @param item The item.
+     * @return Items from top level ancestor to the item, empty if item is not indexed.
+     */
+    public List<BaseItemComplex> getPath(BaseItemComplex item) {
+        List<BaseItemComplex> path = new ArrayList<>();
+        Integer id = mIds.get(item);
+        for (int i = (id != null) ? id : -1; i >= 0; i = mParents[i]) {
+            path.add(mItems[i]);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -0,0 +1,86 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+/**
+ * ItemInfo holding copied values of an item, not affected by later changes of the list.
+ */
+class DetachedItemInfo implements ItemInfo {
+
+    private final int mLevel;
+    private final int mLevelSize;
+    private final int mIdxInLevel;
+    private final boolean mIsExpanded;
+    private final boolean mIsExpandable;
+    private final boolean mIsLoading;
+
+    /**
+     * Constructor.
+     *
+     * @param itemInfo Info which values are copied.
+     */
+    DetachedItemInfo(ItemInfo itemInfo) {
+        mLevel = itemInfo.getLevel();
+        mLevelSize = itemInfo.getLevelSize();
+        mIdxInLevel = itemInfo.getIdxInLevel();
+        mIsExpanded = itemInfo.isExpanded();
+        mIsExpandable = itemInfo.isExpandable();
+        mIsLoading = itemInfo.isLoading();
+    }
+
+    @Override
+    public int getLevel() {
+        return mLevel;
+    }
+
+    @Override
+    public int getLevelSize() {
+        return mLevelSize;
+    }
+
+    @Override
+    public int getIdxInLevel() {
+        return mIdxInLevel;
+    }
+
+    @Override
+    public boolean isExpanded() {
+        return mIsExpanded;
+    }
+
+    @Override
+    public boolean isExpandable() {
+        return mIsExpandable;
+    }
+
+    @Override
+    public boolean isLoading() {
+        return mIsLoading;
+    }
+
+    /**
+     * Gets detached copy of the info. The info is immutable, so it is returned itself.
+     *
+     * @return This info.
+     */
+    @Override
+    public ItemInfo copy() {
+        return this;
+    }
+}
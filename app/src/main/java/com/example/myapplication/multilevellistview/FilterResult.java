@@ -0,0 +1,330 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Objects matching a filter, with their ancestors.
+ *
+ * Matches are kept in the order of pre-order traversal together with parents of all visited
+ * objects, so a narrower filter is applied to the matches only, without traversing the objects
+ * again. Results are not modified, inserted and removed objects produce new results, so the
+ * result can be refined on executor while objects change.
+ */
+class FilterResult {
+
+    private final Predicate<Object> mFilter;
+    private final List<Object> mMatches;
+    private final Map<Object, Object> mParents;
+    private final Map<Object, Object> mInsertedParents;
+
+    /**
+     * Constructor.
+     *
+     * @param filter The filter.
+     * @param matches Matching objects in pre-order.
+     * @param parents Parents of traversed objects, null for top level ones. The map is shared
+     *                by refined results, so it is never modified.
+     * @param insertedParents Parents of objects inserted after the traversal.
+     */
+    private FilterResult(Predicate<Object> filter, List<Object> matches, Map<Object, Object> parents,
+                         Map<Object, Object> insertedParents) {
+        mFilter = filter;
+        mMatches = matches;
+        mParents = parents;
+        mInsertedParents = insertedParents;
+    }
+
+    /**
+     * Applies filter to the objects and their sub-objects. Sub-objects of paged objects are
+     * not traversed.
+     *
+     * @param adapter Adapter providing sub-objects.
+     * @param dataItems Top level objects.
+     * @param filter The filter.
+     * @param isCancelled Checked during traversal, the traversal stops when it returns true.
+     * @return Filter result, null if cancelled.
+     */
+    static FilterResult scan(MultiLevelListAdapter adapter, List<?> dataItems, Predicate<Object> filter, BooleanSupplier isCancelled) {
+        List<Object> matches = new ArrayList<>();
+        Map<Object, Object> parents = new IdentityHashMap<>();
+        if (!traverse(adapter, dataItems, null, filter, isCancelled, matches, parents)) {
+            return null;
+        }
+        return new FilterResult(filter, matches, parents, Collections.emptyMap());
+    }
+
+    /**
+     * Applies filter to the objects and their sub-objects, in pre-order.
+     *
+     * @param adapter Adapter providing sub-objects.
+     * @param objects Objects.
+     * @param parent Parent of objects, null for top level objects.
+     * @param filter The filter.
+     * @param isCancelled Checked during traversal, the traversal stops when it returns true.
+     *                    Null is possible.
+     * @param matches List receiving matching objects.
+     * @param parents Map receiving parents of traversed objects.
+     * @return true if objects were traversed, false if cancelled.
+     */
+    private static boolean traverse(MultiLevelListAdapter adapter, List<?> objects, Object parent, Predicate<Object> filter,
+                                    BooleanSupplier isCancelled, List<Object> matches, Map<Object, Object> parents) {
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        pushAll(stack, objects, parents, parent);
+        while (!stack.isEmpty()) {
+            if (isCancelled != null && isCancelled.getAsBoolean()) {
+                return false;
+            }
+            Object object = stack.pop();
+            if (filter.test(object)) {
+                matches.add(object);
+            }
+            if (adapter.isExpandable(object) && !adapter.isPaged(object)) {
+                pushAll(stack, adapter.getSubObjects(object), parents, object);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pushes objects on the stack, so they are popped in the list order.
+     *
+     * @param stack The stack.
+     * @param objects Objects. Null is possible.
+     * @param parents Map receiving parents of objects.
+     * @param parent Parent of objects.
+     */
+    private static void pushAll(ArrayDeque<Object> stack, List<?> objects, Map<Object, Object> parents, Object parent) {
+        if (objects == null) {
+            return;
+        }
+        for (int i = objects.size() - 1; i >= 0; --i) {
+            Object object = objects.get(i);
+            parents.put(object, parent);
+            stack.push(object);
+        }
+    }
+
+    /**
+     * Applies narrower filter to the matches of this result. Each object matching the filter
+     * has to match filter of this result.
+     *
+     * @param filter The filter.
+     * @param isCancelled Checked during filtering, the filtering stops when it returns true.
+     * @return Filter result, null if cancelled.
+     */
+    FilterResult refine(Predicate<Object> filter, BooleanSupplier isCancelled) {
+        List<Object> matches = new ArrayList<>();
+        for (Object object : mMatches) {
+            if (isCancelled.getAsBoolean()) {
+                return null;
+            }
+            if (filter.test(object)) {
+                matches.add(object);
+            }
+        }
+        return new FilterResult(filter, matches, mParents, mInsertedParents);
+    }
+
+    /**
+     * Gets number of matching objects.
+     *
+     * @return Number of matches.
+     */
+    int getMatchCount() {
+        return mMatches.size();
+    }
+
+    /**
+     * Indicates if sub-objects of the parent were traversed, i.e. the filter is applied to them.
+     *
+     * @param adapter Adapter providing sub-objects.
+     * @param parent Parent object, null for top level objects.
+     * @return true if sub-objects are filtered, false otherwise.
+     */
+    boolean isTraversed(MultiLevelListAdapter adapter, Object parent) {
+        return parent == null || ((mInsertedParents.containsKey(parent) || mParents.containsKey(parent))
+                && !adapter.isPaged(parent));
+    }
+
+    /**
+     * Gets parent of traversed object.
+     *
+     * @param object The object.
+     * @return Parent object, null for top level objects.
+     */
+    private Object getParent(Object object) {
+        return mInsertedParents.containsKey(object) ? mInsertedParents.get(object) : mParents.get(object);
+    }
+
+    /**
+     * Gets result without the object and its descendants.
+     *
+     * @param object Removed object.
+     * @return Filter result.
+     */
+    FilterResult remove(Object object) {
+        List<Object> matches = new ArrayList<>(mMatches.size());
+        for (Object match : mMatches) {
+            Object ancestor = match;
+            while (ancestor != null && ancestor != object) {
+                ancestor = getParent(ancestor);
+            }
+            if (ancestor == null) {
+                matches.add(match);
+            }
+        }
+        return new FilterResult(mFilter, matches, mParents, mInsertedParents);
+    }
+
+    /**
+     * Gets result with the object inserted into sub-objects of the parent. The filter is
+     * applied to the object and its sub-objects, matches are placed in pre-order by comparing
+     * positions of their ancestors within sub-objects.
+     *
+     * @param adapter Adapter providing sub-objects, already containing the object.
+     * @param dataItems Top level objects, already containing top level object.
+     * @param parent Parent object, null for top level objects.
+     * @param object Inserted object.
+     * @return Filter result.
+     */
+    FilterResult insert(MultiLevelListAdapter adapter, List<?> dataItems, Object parent, Object object) {
+        if (!isTraversed(adapter, parent)) {
+            return this;
+        }
+        List<Object> inserted = new ArrayList<>();
+        Map<Object, Object> insertedParents = new IdentityHashMap<>(mInsertedParents);
+        traverse(adapter, Collections.singletonList(object), parent, mFilter, null, inserted, insertedParents);
+        List<Object> matches = new ArrayList<>(mMatches.size() + inserted.size());
+        FilterResult result = new FilterResult(mFilter, matches, mParents, insertedParents);
+
+        // matches are in pre-order, so preceding ones form a prefix
+        List<Object> path = result.getPath(object);
+        int low = 0;
+        int high = mMatches.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (result.precedes(adapter, dataItems, result.getPath(mMatches.get(mid)), path)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        matches.addAll(mMatches.subList(0, low));
+        matches.addAll(inserted);
+        matches.addAll(mMatches.subList(low, mMatches.size()));
+        return result;
+    }
+
+    /**
+     * Gets the object with its ancestors.
+     *
+     * @param object The object.
+     * @return Top level ancestor first, the object last.
+     */
+    private List<Object> getPath(Object object) {
+        List<Object> path = new ArrayList<>();
+        for (Object ancestor = object; ancestor != null; ancestor = getParent(ancestor)) {
+            path.add(ancestor);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Indicates if object precedes another object in pre-order.
+     *
+     * @param adapter Adapter providing sub-objects.
+     * @param dataItems Top level objects.
+     * @param path Path of the object, see getPath.
+     * @param otherPath Path of another object.
+     * @return true if the object is visited first, false otherwise.
+     */
+    private boolean precedes(MultiLevelListAdapter adapter, List<?> dataItems, List<Object> path, List<Object> otherPath) {
+        int level = 0;
+        while (level < path.size() && level < otherPath.size() && path.get(level) == otherPath.get(level)) {
+            level++;
+        }
+        if (level == path.size() || level == otherPath.size()) {
+            // ancestor precedes its descendants
+            return level == path.size();
+        }
+        List<?> siblings = (level == 0) ? dataItems : adapter.getSubObjects(path.get(level - 1));
+        return indexOf(siblings, path.get(level)) < indexOf(siblings, otherPath.get(level));
+    }
+
+    /**
+     * Gets index of the object in the list, objects are compared by identity.
+     *
+     * @param objects The list, null is possible.
+     * @param object The object.
+     * @return Index of the object, -1 if not found.
+     */
+    private static int indexOf(List<?> objects, Object object) {
+        if (objects != null) {
+            for (int i = 0; i < objects.size(); ++i) {
+                if (objects.get(i) == object) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets displayed sub-objects: matching objects and ancestors of matching objects, in the
+     * source order.
+     *
+     * @return Map of displayed sub-objects by their parent, null key for top level objects.
+     */
+    Map<Object, List<Object>> getRetainedObjects() {
+        Map<Object, List<Object>> retained = new IdentityHashMap<>();
+        retained.put(null, new ArrayList<>());
+        for (Object match : mMatches) {
+            // ancestors are visited before the first of their matching descendants
+            Object object = match;
+            while (true) {
+                Object parent = getParent(object);
+                List<Object> siblings = retained.get(parent);
+                boolean isNewParent = (siblings == null);
+                if (isNewParent) {
+                    siblings = new ArrayList<>();
+                    retained.put(parent, siblings);
+                }
+                if (siblings.isEmpty() || siblings.get(siblings.size() - 1) != object) {
+                    siblings.add(object);
+                }
+                if (!isNewParent) {
+                    break;
+                }
+                object = parent;
+            }
+        }
+        return retained;
+    }
+}
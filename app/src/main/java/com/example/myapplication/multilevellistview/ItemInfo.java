@@ -20,6 +20,9 @@ package com.example.myapplication.multilevellistview;
 
 /**
  * Interface used to get information about list item and its location in MultiLevelListView.
+ *
+ * ItemInfo passed to getViewForObject and to listeners is valid only during the call, the same
+ * instance is repositioned to other items later. Use copy() to keep the information.
  */
 public interface ItemInfo {
 
@@ -58,4 +61,23 @@ public interface ItemInfo {
      */
     boolean isExpandable();
 
+    /**
+     * Gets info if item sub-items are being loaded. Items of infos implemented outside
+     * the library are never loading.
+     *
+     * @return true if item sub-items are being loaded, false otherwise.
+     */
+    default boolean isLoading() {
+        return false;
+    }
+
+    /**
+     * Gets detached copy of the info, holding values of the item from the moment it was taken.
+     *
+     * @return Detached copy.
+     */
+    default ItemInfo copy() {
+        return new DetachedItemInfo(this);
+    }
+
 }
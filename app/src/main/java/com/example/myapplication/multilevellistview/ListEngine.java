@@ -0,0 +1,71 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+/**
+ * MultiLevelListView list engines, i.e. Android views used to display items.
+ */
+public enum ListEngine {
+
+    /**
+     * Items are displayed by Android's ListView. Any change of items causes re-binding of all
+     * displayed rows.
+     */
+    LIST_VIEW(0),
+    /**
+     * Items are displayed by RecyclerView. Only changed ranges of items are re-bound.
+     */
+    RECYCLER_VIEW(1);
+
+    private int mValue;
+
+    /**
+     * Constructor.
+     *
+     * @param value list engine value.
+     */
+    ListEngine(int value) {
+        mValue = value;
+    }
+
+    /**
+     * Gets list engine value.
+     *
+     * @return List engine value.
+     */
+    public int getValue() {
+        return mValue;
+    }
+
+    /**
+     * Converts integer to list engine.
+     *
+     * @param value list engine as integer.
+     * @return List engine value.
+     */
+    public static ListEngine fromValue(int value) {
+        switch (value) {
+            case 1:
+                return RECYCLER_VIEW;
+            case 0:
+            default:
+                return LIST_VIEW;
+        }
+    }
+}
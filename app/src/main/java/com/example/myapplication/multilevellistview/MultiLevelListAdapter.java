@@ -18,27 +18,106 @@
 
 package com.example.myapplication.multilevellistview;
 
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
+import android.widget.FrameLayout;
 import android.widget.ListView;
 
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Base adapter to be used for MultiLevelListView.
+ *
+ * Structural changes are reported as ranges of inserted, removed, moved and changed rows. With
+ * RECYCLER_VIEW engine the ranges are passed to RecyclerView, with LIST_VIEW engine they are
+ * reduced to a single notifyDataSetChanged() call per operation.
+ *
+ * When executor is set, nodes for data items and for extended nodes are built on the executor
+ * and published to the UI thread when complete. Until then extended node is marked as loading.
+ *
+ * Sub-objects of paged objects are requested page by page with loadSubObjectsPage. Next page
+ * is requested when rows close to the end of loaded sub-items are displayed.
+ *
+ * Adapter tracks the expanded path: while all expanded nodes lie on a single branch, the deepest
+ * of them is kept, so SINGLE nest type collapses only the branch diverging from extended node.
+ *
+ * When always expanded view uses VIRTUAL or ARENA node store, no node tree is built. Rows are
+ * provided by RowSource: computed from source objects on demand and revealed as they are
+ * reached (VirtualRows) or read from primitive arrays built once (NodeArena).
+ *
+ * Sub-nodes of collapsed items are kept in LRU cache bounded by number of nodes, so collapsed
+ * item is expanded again by reattaching its sub-nodes. The cache is trimmed on memory pressure.
+ *
+ * Filter shows matching items with their ancestors. Matches of the last filter are kept, so
+ * a narrower filter tests only them instead of traversing all objects again.
+ *
+ * Selection of items is kept by SelectionModel, rows of items with changed selection are
+ * notified as changed.
  */
 public abstract class MultiLevelListAdapter {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_COLLAPSED_CACHE_SIZE = 1000;
+
     private MultiLevelListView mView;
 
     private Node mRoot = new Node();
-    private List<Node> mFlatItems = new ArrayList<>();
+    private Map<Object, Node> mNodeIndex = new IdentityHashMap<>();
     private List<Object> mSourceData = new ArrayList<>();
+    private boolean mIsDataSet;
     private ProxyAdapter mProxyAdapter = new ProxyAdapter();
+    // created when the adapter is registered in RecyclerView
+    private RecyclerProxyAdapter mRecyclerProxyAdapter;
+    private boolean mIsListChanged;
+    private AtomicLong mLastNodeId = new AtomicLong(-1);
+
+    private Executor mExecutor;
+    private Handler mMainHandler;
+    private Map<Node, PendingLoad> mNodeLoads = new HashMap<>();
+    private final Set<Node> mPageRequests = new HashSet<>();
+    private final ArrayDeque<Node> mTraversalStack = new ArrayDeque<>();
+    private final int[] mRowOffset = new int[1];
+    private RowSource mRowSource;
+    private final NodeItemInfo mItemInfo = new NodeItemInfo();
+    private Node mExpandedTail;
+    private BitSet mPendingExpansion;
+    private int mBatchDepth;
+    private int mPageSize = DEFAULT_PAGE_SIZE;
+    private final LinkedHashMap<Node, List<Node>> mCollapsedCache = new LinkedHashMap<>(16, 0.75f, true);
+    private int mCollapsedCacheNodes;
+    private int mCollapsedCacheSize = DEFAULT_COLLAPSED_CACHE_SIZE;
+    private Predicate<Object> mFilter;
+    private FilterResult mFilterResult;
+    private List<Node> mUnfilteredNodes;
+    private Map<Object, Node> mUnfilteredIndex;
+    private volatile SortOrder mSortOrder;
+    private SelectionModel mSelectionModel;
 
     /**.
      * Indicates if object is expandable.
@@ -76,399 +155,2500 @@ public abstract class MultiLevelListAdapter {
     protected abstract View getViewForObject(Object object, View convertView, ItemInfo itemInfo, int pos);
 
     /**
-     * Sets initial data items to be displayed in attached MultiLevelListView.
+     * Gets stable id of the object.
      *
-     * @param dataItems The list with data items.
+     * Ids are used by the list to keep row state (and reuse rows) across structural changes.
+     * When the object has no id, id of the node wrapping the object is used. Node ids are
+     * negative, so non-negative object ids never collide with them.
+     *
+     * @param object The object.
+     * @return Object id or AdapterView.INVALID_ROW_ID if the object has no id.
      */
-    public void setDataItems(List<?> dataItems) {
-        setDataItems(dataItems, null);
+    protected long getStableId(Object object) {
+        return AdapterView.INVALID_ROW_ID;
     }
 
     /**
-     * Sets initial data items to be displayed in attached MultiLevelListView and expand passed hierarchy of nodes.
+     * Gets key identifying the object across data sets, used to keep expansion state and item
+     * ids when data items are set again. Equal objects have to have equal keys.
      *
-     * @param dataItems The list with data items.
+     * With executor set, the method may be called on executor threads. Default implementation
+     * returns null, i.e. items are not matched.
+     *
+     * @param object The object.
+     * @return Object key, null if object has no key.
      */
-    public void setDataItems(List<?> dataItems, Stack<?> expandItems) {
-        checkState();
-
-        mSourceData = new ArrayList<>();
-        mSourceData.addAll(dataItems);
-
-        if (expandItems != null) {
-            mRoot.setSubNodes(createNodeListFromDataItems(mSourceData, mRoot, expandItems));
-        } else {
-            mRoot.setSubNodes(createNodeListFromDataItems(mSourceData, mRoot));
-        }
-        notifyDataSetChanged();
+    protected Object getKey(Object object) {
+        return null;
     }
 
     /**
-     * Notifies adapter that data set changed.
+     * Indicates if object's sub-items are loaded in pages with loadSubObjectsPage.
+     *
+     * @param object The object.
+     * @return true if sub-items are paged, false otherwise.
      */
-    public void notifyDataSetChanged() {
-        checkState();
-
-        mFlatItems = createItemsForCurrentStat();
-        mProxyAdapter.notifyDataSetChanged();
+    protected boolean isPaged(Object object) {
+        return false;
     }
 
     /**
-     * Reloads data. Method is causing nodes recreation.
+     * Loads page of object's sub-items.
+     *
+     * Called only for paged objects. The result has to be passed to the callback, which can be
+     * done asynchronously and on any thread. Default implementation returns all sub-objects
+     * as a single page.
+     *
+     * @param object The object.
+     * @param pageToken Token of the page, null for the first page.
+     * @param pageSize Requested number of sub-objects.
+     * @param callback Callback receiving the page.
      */
-    void reloadData() {
-        setDataItems(mSourceData);
+    protected void loadSubObjectsPage(Object object, Object pageToken, int pageSize, PageCallback callback) {
+        callback.onPageLoaded(getSubObjects(object), null);
     }
 
     /**
-     * Throws IllegalStateException if adapter is not attached to view.
+     * Sets number of sub-objects requested per page.
+     *
+     * @param pageSize Page size.
      */
-    private void checkState() {
-        if (mView == null) {
-            throw new IllegalStateException("Adapter not connected");
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size has to be positive");
         }
+        mPageSize = pageSize;
     }
 
     /**
-     * Creates list of nodes for data items provided to adapter.
+     * Gets number of sub-objects requested per page.
      *
-     * @param dataItems List of objects for which nodes have to be created.
-     * @param parent Node that is a parent for nodes created for data items.
-     * @return List with nodes.
+     * @return Page size.
      */
-    private List<Node> createNodeListFromDataItems(List<?> dataItems, Node parent) {
-        List<Node> result = new ArrayList<>();
-        if (dataItems != null) {
-            for (Object dataItem : dataItems) {
-                if (parent == mRoot) {
-                    mRoot.setObject(getParent(dataItem));
-                }
-                boolean isExpandable = isExpandable(dataItem);
-                Node node = new Node(dataItem, parent);
-                node.setExpandable(isExpandable);
-                if (mView.isAlwaysExpanded() && isExpandable) {
-                    node.setSubNodes(createNodeListFromDataItems(getSubObjects(node.getObject()), node));
-                }
-                result.add(node);
-            }
-        }
-        return result;
+    public int getPageSize() {
+        return mPageSize;
     }
 
     /**
-     * Creates list of nodes for data items provided to adapter and expand passed hierarchy of nodes.
+     * Sets maximal number of nodes kept for collapsed items, so they are expanded again without
+     * querying their sub-objects. Sub-objects changes of collapsed items have to be reported
+     * with addItem or insertItem. Zero disables the cache.
      *
-     * @param dataItems
-     * @param parent
-     * @param expandItems
-     * @return
+     * @param nodes Number of nodes.
      */
-    private List<Node> createNodeListFromDataItems(List<?> dataItems, Node parent, Stack<?> expandItems) {
-        Object expandItem = (expandItems != null && expandItems.size() > 1) ? expandItems.pop() : null;
-        List<Node> result = new ArrayList<>();
-        if (dataItems != null) {
-            for (Object dataItem : dataItems) {
-                if (parent == mRoot) {
-                    mRoot.setObject(getParent(dataItem));
-                }
-                boolean isExpandable = isExpandable(dataItem);
-                Node node = new Node(dataItem, parent);
-                node.setExpandable(isExpandable);
-                if (isExpandable && (mView.isAlwaysExpanded() || dataItem == expandItem)) {
-                    if (dataItem == expandItem) {
-                        node.setSubNodes(createNodeListFromDataItems(getSubObjects(node.getObject()), node, expandItems));
-                    } else {
-                        node.setSubNodes(createNodeListFromDataItems(getSubObjects(node.getObject()), node));
-                    }
-                }
-                result.add(node);
-            }
+    public void setCollapsedCacheSize(int nodes) {
+        if (nodes < 0) {
+            throw new IllegalArgumentException("Cache size can't be negative");
         }
-        return result;
+        mCollapsedCacheSize = nodes;
+        evictCollapsed(nodes);
     }
 
     /**
-     * Maps current items hierarchy into flat list.
+     * Gets maximal number of nodes kept for collapsed items.
      *
-     * @return Items flat list.
+     * @return Number of nodes.
      */
-    private List<Node> createItemsForCurrentStat() {
-        List<Node> result = new ArrayList<>();
-        collectItems(result, mRoot.getSubNodes());
-        return result;
+    public int getCollapsedCacheSize() {
+        return mCollapsedCacheSize;
     }
 
     /**
-     * Adds recurrently nodes and their sub-nodes to provided list.
+     * Releases nodes kept for collapsed items on memory pressure.
      *
-     * @param result Output parameter with flat list of items.
-     * @param nodes Nodes list.
+     * @param level Memory trim level, see ComponentCallbacks2.
      */
-    private void collectItems(List<Node> result, List<Node> nodes) {
-        if (nodes != null) {
-            for (Node node : nodes) {
-                result.add(node);
-                collectItems(result, node.getSubNodes());
-            }
+    public void trimCollapsedCache(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictCollapsed(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            evictCollapsed(mCollapsedCacheNodes / 2);
         }
     }
 
     /**
-     * Gets currently displayed list of items.
+     * Shows only items matching the filter, together with their ancestors. Ancestors are
+     * expanded to show matching items, matching items are collapsed. Sub-objects of paged
+     * objects are not filtered.
+     *
+     * With executor set, items are filtered on the executor. Null filter shows all items again,
+     * with expansion state from before the filter was set, unless the items were changed.
      *
-     * @return List items.
+     * @param filter The filter, null is possible.
      */
-    List<Node> getFlatItems() {
-        return mFlatItems;
+    public void setFilter(Predicate<Object> filter) {
+        applyFilter(filter, false);
     }
 
     /**
-     * Unregisters adapter in MultiLevelListView.
+     * Shows only items matching the filter, which narrows the current filter, e.g. the query is
+     * extended while the user is typing. Only items matching the current filter are tested.
      *
-     * @param view The view to unregister.
-     * @throws IllegalArgumentException if adapter is not registered in the view.
+     * @param filter The filter, each object matching it has to match the current filter.
      */
-    void unregisterView(MultiLevelListView view) {
-        if (mView != view) {
-            throw new IllegalArgumentException("Adapter not connected");
-        }
-
-        if (mView == null) {
-            return;
-        }
-
-        mView.getListView().setAdapter(null);
-        mView = null;
+    public void refineFilter(Predicate<Object> filter) {
+        applyFilter(filter, mFilter != null);
     }
 
     /**
-     * Register adapter in MultiLevelListView.
+     * Gets the filter.
      *
-     * @param view The view to register.
-     * @throws IllegalArgumentException if adapter is registered in different view.
+     * @return The filter, null if all items are shown.
      */
-    void registerView(MultiLevelListView view) {
-        if ((mView != null) && (mView != view)) {
-            throw new IllegalArgumentException("Adapter already connected");
-        }
+    public Predicate<Object> getFilter() {
+        return mFilter;
+    }
 
-        if (view == null) {
+    /**
+     * Starts filtering of data items.
+     *
+     * @param filter The filter, null to show all items.
+     * @param refine Indicates if matches of the current filter have to be filtered.
+     */
+    private void applyFilter(Predicate<Object> filter, boolean refine) {
+        checkState();
+        checkTreeStore();
+        cancelLoad(mRoot);
+        evictCollapsed(0);
+        if (filter == null) {
+            mFilter = null;
+            List<Node> nodes = mUnfilteredNodes;
+            dropFilterState();
+            if (nodes != null) {
+                setDataNodes(nodes);
+                // order might be changed while filter was set
+                sortSubtree(mRoot);
+            } else {
+                setDataItems(mSourceData);
+            }
             return;
         }
+        if (mFilter == null && mRoot.isExpanded()) {
+            mUnfilteredNodes = mRoot.getSubNodes();
+            mUnfilteredIndex = null;
+        }
+        mFilter = filter;
 
-        mView = view;
-        mView.getListView().setAdapter(mProxyAdapter);
+        // refined from the last published result, it is a superset of pending one
+        startFilterLoad(new FilterLoad(refine ? mFilterResult : null, mSourceData, filter));
     }
 
     /**
-     * Extends node.
+     * Starts filtering, on the executor if set.
      *
-     * Adds sub-nodes to the node.
-     *
-     * @param node The node.
-     * @param nestTyp NestType value.
+     * @param load The filtering.
      */
-    public void extendNode(Node node, NestType nestTyp) {
-        node.setSubNodes(createNodeListFromDataItems(getSubObjects(node.getObject()), node));
-        if (nestTyp == NestType.SINGLE) {
-            clearPathToNode(node);
+    private void startFilterLoad(FilterLoad load) {
+        if (mExecutor != null) {
+            startLoad(load);
+            mExecutor.execute(load);
+            return;
+        }
+        if (load.build()) {
+            publishFilter(load);
         }
-        notifyDataSetChanged();
     }
 
     /**
-     * Extends node and subnodes (recursively).
-     *
-     * Adds sub-nodes to the nodes.
-     *
-     * @param node The node.
-     * @param nestTyp NestType value.
+     * Drops state kept while filter is set, when changes of items are not known. The next
+     * filter is applied to all items and nodes are created again when the filter is cleared.
      */
-    public void extendNodeSubnodes(Node node, NestType nestTyp) {
-        extendNode(node);
-        if (nestTyp == NestType.SINGLE) {
-            clearPathToNode(node);
-        }
-        notifyDataSetChanged();
+    private void dropFilterState() {
+        mFilterResult = null;
+        mUnfilteredNodes = null;
+        mUnfilteredIndex = null;
     }
 
     /**
-     *
-     * @param pos
-     * @param nestTyp
+     * Starts pending filtering again, so its result reflects changed items.
      */
-    public void extendNodeSubnodes(int pos, NestType nestTyp) {
-        Node node = mFlatItems.get(pos);
-        if (node != null) {
-            extendNodeSubnodes(node, nestTyp);
+    private void restartFilterLoad() {
+        PendingLoad load = mNodeLoads.get(mRoot);
+        if (load instanceof FilterLoad) {
+            boolean refine = ((FilterLoad) load).mPrevious != null;
+            cancelLoad(mRoot);
+            startFilterLoad(new FilterLoad(refine ? mFilterResult : null, mSourceData, mFilter));
         }
     }
 
     /**
-     * Only extends node and subnodes (recursively).
-     *
-     * Adds sub-nodes to the nodes.
+     * Removes the object from state kept while filter is set: matches refined by a narrower
+     * filter and nodes displayed when the filter is cleared.
      *
-     * @param node The node.
+     * @param object Removed object.
+     * @return Unfiltered node of the object, null if there is none.
      */
-    private void extendNode(Node node) {
-        List<Node> subNodes = createNodeListFromDataItems(getSubObjects(node.getObject()), node);
-        node.setSubNodes(subNodes);
-        for (Node subNode : subNodes) {
-            if (subNode.isExpandable()) {
-                extendNode(subNode);
+    private Node removeFiltered(Object object) {
+        if (mFilter == null) {
+            return null;
+        }
+        if (mFilterResult != null) {
+            mFilterResult = mFilterResult.remove(object);
+        }
+        Node node = findUnfilteredNode(object);
+        if (node != null) {
+            Node parent = node.getParent();
+            if (parent == mRoot) {
+                mUnfilteredNodes.remove(node);
+            } else {
+                parent.removeSubNode(node.getIdxInLevel());
+                if (parent.getSubNodes().isEmpty()) {
+                    parent.setExpandable(false);
+                }
             }
+            unregisterUnfiltered(node);
         }
+        restartFilterLoad();
+        return node;
     }
 
-    public int extendToNode(Object nodeObj, Stack<Object> expandItems) {
-        if (nodeObj == null) {
-            return -1;
-        }
-        if (nodeObj == mRoot.getObject()) {
-            return -2;
+    /**
+     * Inserts the object into state kept while filter is set.
+     *
+     * @param parentObj Parent object, null for top level items.
+     * @param index Index of the object within parent sub-objects.
+     * @param object Inserted object.
+     * @param node Unfiltered node of the object removed by removeFiltered, null to create one.
+     * @return true if the object is displayed, i.e. it is retained by the filter or its parent
+     *         is not filtered.
+     */
+    private boolean insertFiltered(Object parentObj, int index, Object object, Node node) {
+        if (mFilter == null) {
+            return true;
         }
-        if (expandItems == null) {
-            expandItems = new Stack<>();
+        Node parent = (parentObj != null) ? findUnfilteredNode(parentObj) : (hasUnfilteredNodes() ? mRoot : null);
+        if (parent != null && parent != mRoot && !parent.isExpandable()) {
+            parent.setExpandable(true);
         }
-
-        Object nextNodeObj;
-        int flatPos = getPosFromObject(nodeObj);
-        if (flatPos < 0) {
-            // add to stack
-            expandItems.push(nodeObj);
-            nextNodeObj = getParent(nodeObj);
-        } else {
-            if (expandItems.size() == 0) {
-                // finish
-                mProxyAdapter.notifyDataSetChanged();
-                return flatPos;
+        if (parent != null && (parent == mRoot || (parent.isExpanded()
+                && !(parent.hasMorePages() && index >= parent.getSubNodes().size())))) {
+            List<Node> subNodes = (parent == mRoot) ? mUnfilteredNodes : parent.getSubNodes();
+            if (node == null) {
+                node = createNodeListFromDataItems(Collections.singletonList(object), parent, mView.isAlwaysExpanded()).get(0);
             } else {
-                // expand node
-                Node node = mFlatItems.get(flatPos);
-                node.setSubNodes(createNodeListFromDataItems(getSubObjects(node.getObject()), node));
-
-                // update flat list (add new node subnodes)
-                mFlatItems = createItemsForCurrentStat();
-                // get from stack
-                nextNodeObj = expandItems.pop();
+                node.setParent(parent);
+                updateMovedSubtree(node);
+            }
+            int idx = placeSubNode(subNodes, isSortable(parent), index, node);
+            if (parent == mRoot) {
+                subNodes.add(idx, node);
+            } else {
+                parent.insertSubNode(idx, node);
             }
+            registerUnfiltered(node);
+        }
+
+        boolean isDisplayed = true;
+        if (mFilterResult != null) {
+            FilterResult result = mFilterResult;
+            mFilterResult = result.insert(this, mSourceData, parentObj, object);
+            isDisplayed = !result.isTraversed(this, parentObj) || mFilterResult.getMatchCount() > result.getMatchCount();
         }
-        return extendToNode(nextNodeObj, expandItems);
+        restartFilterLoad();
+        return isDisplayed;
     }
 
     /**
-     * Collapse node.
+     * Indicates if nodes displayed when the filter is cleared are kept apart from displayed
+     * nodes, i.e. they are not displayed until the first filtering is finished.
      *
-     * Clears node's sub-nodes.
+     * @return true if unfiltered nodes have to be changed separately, false otherwise.
+     */
+    private boolean hasUnfilteredNodes() {
+        return mUnfilteredNodes != null && mUnfilteredNodes != mRoot.getSubNodes();
+    }
+
+    /**
+     * Finds node of the object among nodes displayed when the filter is cleared.
      *
-     * @param node The node
+     * @param object The object.
+     * @return The node, null if there is none, e.g. an ancestor is collapsed.
      */
-    public void collapseNode(Node node) {
-        node.clearSubNodes();
-        notifyDataSetChanged();
+    private Node findUnfilteredNode(Object object) {
+        if (!hasUnfilteredNodes()) {
+            return null;
+        }
+        if (mUnfilteredIndex == null) {
+            // built on the first change, most filters are cleared without changes
+            mUnfilteredIndex = new IdentityHashMap<>();
+            for (Node node : mUnfilteredNodes) {
+                registerUnfiltered(node);
+            }
+        }
+        return mUnfilteredIndex.get(object);
     }
 
     /**
-     * Toggle node is expanded/collapsed.
-     * @param flatPos
+     * Registers unfiltered node and its sub-nodes (recursively) in the unfiltered index.
+     *
+     * @param node The node.
      */
-    public void toggleNodeExpand(int flatPos) {
-        if (flatPos < 0 || flatPos >= mFlatItems.size())
-            return;
-        Node node = mFlatItems.get(flatPos);
-        if (node == null)
+    private void registerUnfiltered(Node node) {
+        if (mUnfilteredIndex == null) {
             return;
-        if (node.isExpanded()) {
-            collapseNode(node);
-        } else {
-            extendNode(node, NestType.MULTIPLE);
+        }
+        ArrayDeque<Node> stack = mTraversalStack;
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node subNode = stack.pop();
+            mUnfilteredIndex.put(subNode.getObject(), subNode);
+            pushSubNodes(stack, subNode);
         }
     }
 
     /**
-     * Collapse any extended way not leading to the node.
+     * Removes unfiltered node and its sub-nodes (recursively) from the unfiltered index.
      *
      * @param node The node.
      */
-    private void clearPathToNode(Node node) {
-        Node parent = node.getParent();
-        if (parent != null) {
-            List<Node> nodes = parent.getSubNodes();
-            if (nodes != null) {
-                for (Node sibling : nodes) {
-                    if (sibling != node) {
-                        sibling.clearSubNodes();
-                    }
-                }
+    private void unregisterUnfiltered(Node node) {
+        ArrayDeque<Node> stack = mTraversalStack;
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node subNode = stack.pop();
+            if (mUnfilteredIndex.get(subNode.getObject()) == subNode) {
+                mUnfilteredIndex.remove(subNode.getObject());
             }
-            clearPathToNode(parent);
+            pushSubNodes(stack, subNode);
         }
     }
 
     /**
-     * Swap two items in flat list.
-     * @param flatPos Position in flat list
-     * @param nodePos Position in node
-     * @param nodePos2 Position in node
-     * @return
+     * Gets index of the object among displayed sub-nodes of the parent while filter is set,
+     * i.e. number of preceding sub-objects which are displayed.
+     *
+     * @param parent Parent node.
+     * @param index Index of the object within parent sub-objects.
+     * @return Index of the object within sub-nodes in source order.
      */
-    public boolean swapItems(int flatPos, int nodePos, int nodePos2) {
-        if (flatPos < 0 || flatPos >= mFlatItems.size()
-                || nodePos < 0 || nodePos2 < 0 || nodePos == nodePos2)
-            return false;
-        Node node = mFlatItems.get(flatPos);
-        if (node != null && node.getParent() != null) {
-            List<Node> subNodes = node.getParent().getSubNodes();
-            int size = subNodes.size();
-            if (nodePos < size && nodePos2 < size) {
-                Collections.swap(subNodes, nodePos, nodePos2);
-                notifyDataSetChanged();
-                return true;
+    private int getFilteredIndex(Node parent, int index) {
+        List<?> subObjects = (parent == mRoot) ? mSourceData : getSubObjects(parent.getObject());
+        int filteredIndex = 0;
+        for (int i = 0; i < index; ++i) {
+            Node node = mNodeIndex.get(subObjects.get(i));
+            if (node != null && node.getParent() == parent) {
+                filteredIndex++;
             }
         }
-        return false;
+        return filteredIndex;
     }
 
     /**
-     * Add item to some node.
-     * @param flatPos position of node on which need to create a new node. May be parent or adjacent
-     * @param isSubNode is branch {@param flatPos} parent
-     * @return
+     * Converts index among displayed sub-nodes of the parent to index within its sub-objects,
+     * as expected by moveItem. Objects hidden by the filter are skipped by displayed sub-nodes.
+     * Sorted sub-nodes don't follow sub-objects, so the item dropped among them is placed last.
+     *
+     * @param parent New parent node.
+     * @param idxInLevel Index among displayed sub-nodes of the parent, the moved node excluded.
+     * @param node Moved node.
+     * @return Index within sub-objects of the parent without the moved object, -1 if the node
+     * keeps its place among sorted sub-nodes.
      */
-    public boolean addItem(int flatPos, boolean isSubNode) {
-        if (flatPos < 0 || flatPos >= mFlatItems.size())
-            return false;
-        Node parentNode = mFlatItems.get(flatPos);
-        if (!isSubNode) {
-            parentNode = (parentNode != null) ? parentNode.getParent() : mRoot;
+    int getDropIndex(Node parent, int idxInLevel, Node node) {
+        boolean isSorted = (mSortOrder != null && isSortable(parent));
+        if (isSorted && node.getParent() == parent) {
+            return -1;
         }
-        return addItem(parentNode);
-    }
-
-    public boolean addItem(Object parentNodeObj) {
-        Stack<Object> expandHierarchy = new Stack<>();
-        int flatPos = extendToNode(parentNodeObj, expandHierarchy);
-        if (flatPos == -2) {
-            return addItem(mRoot);
+        if (mFilter == null && !isSorted) {
+            return idxInLevel;
         }
-        return addItem(flatPos, true);
+        Object next = null;
+        if (!isSorted) {
+            int count = 0;
+            for (Node subNode : parent.getSubNodes()) {
+                if (subNode != node && count++ == idxInLevel) {
+                    next = subNode.getObject();
+                    break;
+                }
+            }
+        }
+        List<?> subObjects = (parent == mRoot) ? mSourceData : getSubObjects(parent.getObject());
+        int index = 0;
+        for (Object subObject : subObjects) {
+            if (subObject == next) {
+                break;
+            }
+            if (subObject != node.getObject()) {
+                index++;
+            }
+        }
+        return index;
     }
 
     /**
-     * Add item to some node.
-     * @param flatPos
-     * @return
+     * Creates list of nodes for objects retained by the filter. Nodes with retained sub-objects
+     * are expanded.
+     *
+     * @param retained Retained sub-objects by their parent, null key for top level objects.
+     * @return List with nodes.
      */
-    public boolean addItem(int flatPos) {
-        return addItem(flatPos, true);
+    private List<Node> createFilteredNodeList(Map<Object, List<Object>> retained) {
+        List<Node> result = new ArrayList<>();
+        List<NodeBuild> builds = new ArrayList<>();
+        builds.add(new NodeBuild(mRoot, retained.get(null), result, false));
+        for (int i = 0; i < builds.size(); ++i) {
+            NodeBuild build = builds.get(i);
+            for (Object dataItem : build.mDataItems) {
+                Node node = createNode(dataItem, build.mNode, isExpandable(dataItem));
+                node.setSourceIdx(build.mSubNodes.size());
+                List<Object> subObjects = retained.get(dataItem);
+                if (subObjects != null) {
+                    builds.add(new NodeBuild(node, subObjects, new ArrayList<Node>(), false));
+                }
+                build.mSubNodes.add(node);
+            }
+        }
+
+        sortBuiltNodes(builds);
+        for (int i = builds.size() - 1; i > 0; --i) {
+            NodeBuild build = builds.get(i);
+            build.mNode.initSubNodes(build.mSubNodes);
+        }
+        return result;
     }
 
     /**
-     * Add item to the root.
-     * @return
+     * Publishes nodes of filtered items. Called on the UI thread.
+     *
+     * @param load The finished filtering.
      */
-    public boolean addItem() {
+    private void publishFilter(FilterLoad load) {
+        if (load.mIsCancelled || (mNodeLoads.containsKey(mRoot) && mNodeLoads.get(mRoot) != load)) {
+            // superseded by another operation
+            return;
+        }
+        mNodeLoads.remove(mRoot);
+        if (mView == null) {
+            return;
+        }
+        mFilterResult = load.mResult;
+        setDataNodes(load.mNodes);
+        sortIfOrderChanged(load);
+    }
+
+    /**
+     * Sorts published nodes if sort order was changed while they were built.
+     *
+     * @param load The published load.
+     */
+    private void sortIfOrderChanged(PendingLoad load) {
+        if (load.mSortOrder != mSortOrder) {
+            sortSubtree(load.mNode);
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Sets order of displayed sub-items. Sort key is computed once per item, sub-items are
+     * sorted when they are displayed, so only expanded items are sorted. Change of the order
+     * re-sorts displayed items only. Sub-items of paged items are not sorted.
+     *
+     * With executor set, sort keys may be computed on executor threads.
+     *
+     * @param sortKey Function computing sort key of the object, null to display sub-items in
+     *                source order.
+     * @param comparator Comparator of sort keys, null for natural order of keys.
+     */
+    public <K> void setSortOrder(Function<Object, K> sortKey, Comparator<? super K> comparator) {
+        checkState();
+        checkTreeStore();
+        mSortOrder = (sortKey != null) ? new SortOrder(sortKey, comparator) : null;
+        sortSubtree(mRoot);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Indicates if sub-items are sorted.
+     *
+     * @return true if sort order is set, false if sub-items are displayed in source order.
+     */
+    public boolean isSorted() {
+        return mSortOrder != null;
+    }
+
+    /**
+     * Gets selection model of items, created on first use.
+     *
+     * @return The selection model.
+     */
+    public SelectionModel getSelectionModel() {
+        if (mSelectionModel == null) {
+            mSelectionModel = new SelectionModel(this);
+        }
+        return mSelectionModel;
+    }
+
+    /**
+     * Gets top level data items.
+     *
+     * @return Data items.
+     */
+    List<Object> getDataItems() {
+        return mSourceData;
+    }
+
+    /**
+     * Gets parent of the object, null for top level objects. Parent of displayed object is
+     * taken from its node.
+     *
+     * @param object The object.
+     * @return Parent object or null.
+     */
+    Object getParentObject(Object object) {
+        Node node = mNodeIndex.get(object);
+        if (node != null && node.getParent() != null) {
+            return (node.getParent() == mRoot) ? null : node.getParent().getObject();
+        }
+        Object parent = getParent(object);
+        return (parent == mRoot.getObject()) ? null : parent;
+    }
+
+    /**
+     * Notifies rows of the object, its displayed descendants and ancestors changed selection.
+     *
+     * @param object The object, null if selection of all objects changed.
+     */
+    void notifySelectionChanged(Object object) {
+        if (mView == null) {
+            return;
+        }
+        if (object == null || mRowSource != null) {
+            notifyDataSetChanged();
+            return;
+        }
+        Node node = mNodeIndex.get(object);
+        int flatPos = (node != null) ? getFlatPos(node) : -1;
+        if (flatPos >= 0) {
+            notifyRowsChanged(flatPos, node.getRowCount());
+        }
+        for (Object parent = getParentObject(object); parent != null; parent = getParentObject(parent)) {
+            Node parentNode = mNodeIndex.get(parent);
+            int parentPos = (parentNode != null) ? getFlatPos(parentNode) : -1;
+            if (parentPos >= 0) {
+                notifyRowsChanged(parentPos, 1);
+            }
+        }
+        commitRowChanges();
+    }
+
+    /**
+     * Indicates if sub-nodes of the node are sorted, sub-nodes of paged nodes keep the order
+     * of loaded pages.
+     *
+     * @param node The node.
+     * @return true if sub-nodes are sorted, false otherwise.
+     */
+    private boolean isSortable(Node node) {
+        return node == mRoot || !isPaged(node.getObject());
+    }
+
+    /**
+     * Sorts nodes created for levels of a build with the current order.
+     *
+     * @param builds Levels of the build.
+     */
+    private void sortBuiltNodes(List<NodeBuild> builds) {
+        SortOrder order = mSortOrder;
+        if (order == null) {
+            return;
+        }
+        for (NodeBuild build : builds) {
+            if (isSortable(build.mNode)) {
+                Collections.sort(build.mSubNodes, order);
+            }
+        }
+    }
+
+    /**
+     * Sorts sub-nodes of the node and of its expanded descendants with the current order.
+     *
+     * @param node The node.
+     */
+    private void sortSubtree(Node node) {
+        Comparator<Node> order = (mSortOrder != null) ? mSortOrder : SortOrder.SOURCE_ORDER;
+        ArrayDeque<Node> stack = mTraversalStack;
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node subNode = stack.pop();
+            if (subNode.isExpanded() && isSortable(subNode)) {
+                subNode.sortSubNodes(order);
+            }
+            pushSubNodes(stack, subNode);
+        }
+    }
+
+    /**
+     * Sets initial data items to be displayed in attached MultiLevelListView.
+     *
+     * @param dataItems The list with data items.
+     */
+    public void setDataItems(List<?> dataItems) {
+        setDataItems(dataItems, null);
+    }
+
+    /**
+     * Sets initial data items to be displayed in attached MultiLevelListView and expand passed hierarchy of nodes.
+     *
+     * When getKey provides keys, items matching previously expanded items are expanded too,
+     * and matching items keep their ids.
+     *
+     * @param dataItems The list with data items.
+     */
+    public void setDataItems(List<?> dataItems, Stack<?> expandItems) {
+        checkState();
+
+        if (mSelectionModel != null && dataItems != mSourceData) {
+            mSelectionModel.reset();
+        }
+        mSourceData = new ArrayList<>();
+        mSourceData.addAll(dataItems);
+        mIsDataSet = true;
+        mFilter = null;
+        dropFilterState();
+
+        RestoredState restoredState = captureRestoredState(mPendingExpansion);
+        mPendingExpansion = null;
+        cancelLoad(mRoot);
+        evictCollapsed(0);
+        if (mView.isAlwaysExpanded() && mView.getNodeStore() != NodeStore.TREE) {
+            setRowSource(mView.getNodeStore());
+            return;
+        }
+        mRowSource = null;
+        if (mExecutor != null) {
+            NodeLoad load = new NodeLoad(mRoot, mSourceData, expandItems, mView.isAlwaysExpanded(), null, restoredState);
+            startLoad(load);
+            mExecutor.execute(load);
+            return;
+        }
+
+        List<Node> nodes = createNodeListFromDataItems(mSourceData, mRoot, expandItems, mView.isAlwaysExpanded(), 0, restoredState);
+        setDataNodes(nodes);
+    }
+
+    /**
+     * Replaces all nodes with rows provided by row source for data items.
+     *
+     * @param nodeStore VIRTUAL or ARENA node store.
+     */
+    private void setRowSource(NodeStore nodeStore) {
+        releaseSubNodes(mRoot);
+        mRoot.clearSubNodes();
+        mExpandedTail = mRoot;
+        if (!mSourceData.isEmpty()) {
+            mRoot.setObject(getParent(mSourceData.get(mSourceData.size() - 1)));
+        }
+        if (nodeStore == NodeStore.ARENA) {
+            mRowSource = new NodeArena(this, mSourceData, mRoot);
+        } else {
+            mRowSource = new VirtualRows(this, mSourceData, mRoot);
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Throws IllegalStateException if rows are provided by row source, i.e. nodes can't be modified.
+     */
+    private void checkTreeStore() {
+        if (mRowSource != null) {
+            throw new IllegalStateException("Operation not supported by " + mView.getNodeStore() + " node store");
+        }
+    }
+
+    /**
+     * Replaces all nodes with nodes created for data items.
+     *
+     * @param nodes Nodes created for data items.
+     */
+    private void setDataNodes(List<Node> nodes) {
+        if (!nodes.isEmpty()) {
+            mRoot.setObject(getParent(nodes.get(nodes.size() - 1).getObject()));
+        }
+        releaseSubNodes(mRoot);
+        mRoot.setSubNodes(nodes);
+        registerSubNodes(mRoot);
+        mExpandedTail = findExpandedTail(mRoot);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Sets executor used to build nodes off the UI thread.
+     *
+     * With executor set, getSubObjects, isExpandable and getParent may be called on executor
+     * threads. Null value (default) means nodes are built synchronously.
+     *
+     * @param executor The executor, null is possible.
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Gets executor used to build nodes off the UI thread.
+     *
+     * @return The executor or null if nodes are built synchronously.
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Notifies adapter that data set changed.
+     */
+    public void notifyDataSetChanged() {
+        checkState();
+
+        if (mBatchDepth > 0) {
+            mIsListChanged = true;
+            return;
+        }
+        mIsListChanged = false;
+        if (isRecyclerEngine()) {
+            mRecyclerProxyAdapter.notifyDataSetChanged();
+        } else {
+            mProxyAdapter.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Starts batch of changes. Until the batch ends, changes of items are collected and the
+     * attached view is notified once, when the outermost batch ends. Batches can be nested.
+     */
+    public void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends batch of changes started with beginBatch. The attached view is notified if any item
+     * changed during the outermost batch.
+     *
+     * @throws IllegalStateException if no batch was started.
+     */
+    public void endBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("Batch not started");
+        }
+        mBatchDepth--;
+        commitRowChanges();
+    }
+
+    /**
+     * Runs changes of items as a single batch.
+     *
+     * @param changes Changes to run.
+     */
+    public void batch(Runnable changes) {
+        beginBatch();
+        try {
+            changes.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Indicates if adapter is displayed by RecyclerView.
+     *
+     * @return true for RECYCLER_VIEW engine, false otherwise.
+     */
+    private boolean isRecyclerEngine() {
+        return mView != null && mView.getRecyclerView() != null;
+    }
+
+    /**
+     * Indicates if row changes are notified as ranges. Within a batch changes are only collected.
+     *
+     * @return true if ranges are notified, false otherwise.
+     */
+    private boolean isRangeNotified() {
+        return mBatchDepth == 0 && isRecyclerEngine();
+    }
+
+    /**
+     * Notifies that rows were inserted.
+     *
+     * @param flatPos Position of the first inserted row.
+     * @param count Number of inserted rows.
+     */
+    private void notifyRowsInserted(int flatPos, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (isRangeNotified()) {
+            mRecyclerProxyAdapter.notifyItemRangeInserted(flatPos, count);
+        } else {
+            mIsListChanged = true;
+        }
+    }
+
+    /**
+     * Notifies that rows were appended by the row source, which reveals rows as they are reached.
+     *
+     * @param rowSource The row source, rows of replaced row source are not notified.
+     * @param flatPos Position of the first revealed row.
+     * @param count Number of revealed rows.
+     */
+    void notifyRowsRevealed(RowSource rowSource, int flatPos, int count) {
+        if (rowSource != mRowSource || mView == null) {
+            return;
+        }
+        notifyRowsInserted(flatPos, count);
+        commitRowChanges();
+    }
+
+    /**
+     * Notifies that rows were removed.
+     *
+     * @param flatPos Position of the first removed row.
+     * @param count Number of removed rows.
+     */
+    private void notifyRowsRemoved(int flatPos, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (isRangeNotified()) {
+            mRecyclerProxyAdapter.notifyItemRangeRemoved(flatPos, count);
+        } else {
+            mIsListChanged = true;
+        }
+    }
+
+    /**
+     * Notifies that rows have to be re-bound.
+     *
+     * @param flatPos Position of the first changed row.
+     * @param count Number of changed rows.
+     */
+    private void notifyRowsChanged(int flatPos, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (isRangeNotified()) {
+            mRecyclerProxyAdapter.notifyItemRangeChanged(flatPos, count);
+        } else {
+            mIsListChanged = true;
+        }
+    }
+
+    /**
+     * Notifies that block of rows was moved. Single row is notified as moved, larger block as
+     * removed and inserted range, so the notification doesn't grow with the block.
+     *
+     * @param fromPos Position of the first moved row before the move.
+     * @param toPos Position of the first moved row after the move.
+     * @param count Number of moved rows.
+     */
+    private void notifyRowsMoved(int fromPos, int toPos, int count) {
+        if (count <= 0 || fromPos == toPos) {
+            return;
+        }
+        if (isRangeNotified()) {
+            if (count == 1) {
+                mRecyclerProxyAdapter.notifyItemMoved(fromPos, toPos);
+            } else {
+                mRecyclerProxyAdapter.notifyItemRangeRemoved(fromPos, count);
+                mRecyclerProxyAdapter.notifyItemRangeInserted(toPos, count);
+            }
+        } else {
+            mIsListChanged = true;
+        }
+    }
+
+    /**
+     * Finishes operation. ListView is notified if any row changed during the operation, both
+     * engines are notified once if rows changed during a batch.
+     */
+    private void commitRowChanges() {
+        if (mBatchDepth == 0 && mIsListChanged && mView != null) {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Reloads data. Method is causing nodes recreation.
+     */
+    void reloadData() {
+        setDataItems(mSourceData);
+    }
+
+    /**
+     * Throws IllegalStateException if adapter is not attached to view.
+     */
+    private void checkState() {
+        if (mView == null) {
+            throw new IllegalStateException("Adapter not connected");
+        }
+    }
+
+    /**
+     * Creates list of nodes for data items provided to adapter.
+     *
+     * Created nodes are not attached to the parent and not registered, so the method can be
+     * called off the UI thread.
+     *
+     * @param dataItems List of objects for which nodes have to be created.
+     * @param parent Node that is a parent for nodes created for data items.
+     * @param expandAll Indicates if expandable nodes have to be extended (recursively).
+     * @return List with nodes.
+     */
+    private List<Node> createNodeListFromDataItems(List<?> dataItems, Node parent, boolean expandAll) {
+        return createNodeListFromDataItems(dataItems, parent, null, expandAll, 0, null);
+    }
+
+    /**
+     * Creates list of nodes for data items provided to adapter and expand passed hierarchy of nodes.
+     *
+     * Levels are built breadth-first with an explicit queue, so depth of the hierarchy is not
+     * limited by the call stack.
+     *
+     * @param dataItems
+     * @param parent
+     * @param expandItems
+     * @param expandAll Indicates if expandable nodes have to be extended (recursively).
+     * @param maxLevel Level from which nodes are not extended unless expandAll is set, nodes on
+     *                 lower levels are extended except paged ones. 0 if nodes are not extended
+     *                 because of their level.
+     * @param restoredState Expansion state and ids of previously displayed items. Null is possible.
+     * @return
+     */
+    private List<Node> createNodeListFromDataItems(List<?> dataItems, Node parent, Stack<?> expandItems, boolean expandAll, int maxLevel, RestoredState restoredState) {
+        List<Node> result = new ArrayList<>();
+        // parents are always queued before their sub-nodes
+        List<NodeBuild> builds = new ArrayList<>();
+        builds.add(new NodeBuild(parent, dataItems, result, expandItems != null));
+        for (int i = 0; i < builds.size(); ++i) {
+            NodeBuild build = builds.get(i);
+            if (build.mDataItems == null) {
+                continue;
+            }
+            Object expandItem = (build.mIsOnPath && expandItems.size() > 1) ? expandItems.pop() : null;
+            for (Object dataItem : build.mDataItems) {
+                boolean isExpandable = isExpandable(dataItem);
+                Object key = (restoredState != null && restoredState.isKeyed()) ? getKey(dataItem) : null;
+                Node node = (key != null)
+                        ? createNode(dataItem, build.mNode, isExpandable, restoredState.takeId(key))
+                        : createNode(dataItem, build.mNode, isExpandable);
+                boolean isOnPath = (expandItem != null && dataItem == expandItem);
+                boolean wasExpanded = isExpandable && restoredState != null
+                        && restoredState.takeExpanded(key) && !isPaged(dataItem);
+                boolean isBelowMaxLevel = node.getLevel() < maxLevel && !isPaged(dataItem);
+                if (isExpandable && (expandAll || isOnPath || wasExpanded || isBelowMaxLevel)) {
+                    if (isPaged(dataItem)) {
+                        // expanded without sub-nodes, the first page is requested when registered
+                        node.setNextPage(null, true);
+                        builds.add(new NodeBuild(node, null, new ArrayList<Node>(), false));
+                    } else {
+                        builds.add(new NodeBuild(node, getSubObjects(dataItem), new ArrayList<Node>(), isOnPath));
+                    }
+                }
+                node.setSourceIdx(build.mSubNodes.size());
+                build.mSubNodes.add(node);
+            }
+        }
+
+        sortBuiltNodes(builds);
+        // attach sub-nodes bottom-up, so visible counts of sub-nodes are known
+        for (int i = builds.size() - 1; i > 0; --i) {
+            NodeBuild build = builds.get(i);
+            build.mNode.initSubNodes(build.mSubNodes);
+        }
+        return result;
+    }
+
+    /**
+     * Generates id of a new node. Nodes built on executor threads get ids too.
+     *
+     * @return Negative id, unique within the adapter.
+     */
+    long nextNodeId() {
+        // ids -1 and Long.MIN_VALUE are reserved by RecyclerView and ListView
+        return mLastNodeId.decrementAndGet();
+    }
+
+    /**
+     * Creates node wrapping the object.
+     *
+     * @param dataItem Wrapped object.
+     * @param parent Parent node.
+     * @param isExpandable Indicates if object is expandable.
+     * @return The node.
+     */
+    private Node createNode(Object dataItem, Node parent, boolean isExpandable) {
+        return createNode(dataItem, parent, isExpandable, nextNodeId());
+    }
+
+    /**
+     * Creates node wrapping the object.
+     *
+     * @param dataItem Wrapped object.
+     * @param parent Parent node.
+     * @param isExpandable Indicates if object is expandable.
+     * @param id Node id, new id is assigned if 0 is passed.
+     * @return The node.
+     */
+    private Node createNode(Object dataItem, Node parent, boolean isExpandable, long id) {
+        if (id == 0) {
+            id = nextNodeId();
+        }
+        Node node = new Node(dataItem, parent, id);
+        node.setExpandable(isExpandable);
+        return node;
+    }
+
+    /**
+     * Collects keys of expanded items and ids of displayed items, so they can be restored
+     * for new data items.
+     *
+     * @param expandedBits Saved expansion state used instead of expanded keys. Null is possible.
+     * @return Restored state or null if there is nothing to restore.
+     */
+    private RestoredState captureRestoredState(BitSet expandedBits) {
+        RestoredState restoredState = new RestoredState(expandedBits);
+        if (mRowSource != null || !mRoot.isExpanded()) {
+            return (expandedBits != null) ? restoredState : null;
+        }
+        ArrayDeque<Node> stack = mTraversalStack;
+        pushSubNodes(stack, mRoot);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            Object key = getKey(node.getObject());
+            if (key != null) {
+                restoredState.mIds.putIfAbsent(key, node.getId());
+                if (node.isExpanded()) {
+                    restoredState.mExpandedKeys.add(key);
+                }
+            }
+            pushSubNodes(stack, node);
+        }
+        return (restoredState.isKeyed() || expandedBits != null) ? restoredState : null;
+    }
+
+    /**
+     * Saves expansion state of displayed items.
+     *
+     * Expandable items are visited level by level, only sub-items of expanded items, with one
+     * bit telling if the item is expanded. Nodes are built in the same order, so the state is
+     * restored while nodes are built, in a single pass. Paged items are saved as collapsed.
+     * While filter is set, expansion of items displayed when the filter is cleared is saved.
+     *
+     * @return Expansion bits or null if the state is not kept by nodes.
+     */
+    BitSet saveExpansion() {
+        if (mPendingExpansion != null) {
+            // data items not set yet, the state is still to be restored
+            return mPendingExpansion;
+        }
+        if (mView == null || mView.isAlwaysExpanded() || mRowSource != null || !mRoot.isExpanded()) {
+            return null;
+        }
+        if (mFilter != null && mUnfilteredNodes == null) {
+            // filtered nodes are expanded to show matches
+            return null;
+        }
+        BitSet bits = new BitSet();
+        int bit = 0;
+        List<Node> queue = new ArrayList<>();
+        queue.add(mRoot);
+        for (int i = 0; i < queue.size(); ++i) {
+            List<Node> subNodes = (i == 0 && mFilter != null) ? mUnfilteredNodes : queue.get(i).getSubNodes();
+            if (mSortOrder != null) {
+                // nodes are built in source order and sorted afterwards
+                subNodes = new ArrayList<>(subNodes);
+                Collections.sort(subNodes, SortOrder.SOURCE_ORDER);
+            }
+            for (Node subNode : subNodes) {
+                Object object = subNode.getObject();
+                if (!isExpandable(object)) {
+                    continue;
+                }
+                if (subNode.isExpanded() && !isPaged(object)) {
+                    bits.set(bit);
+                    queue.add(subNode);
+                }
+                bit++;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Restores expansion state saved by saveExpansion. Data items are set again, or the state
+     * is kept until data items are set for the first time.
+     *
+     * @param bits Expansion bits.
+     */
+    void restoreExpansion(BitSet bits) {
+        mPendingExpansion = bits;
+        if (mView != null && mIsDataSet) {
+            setDataItems(mSourceData);
+        }
+    }
+
+    /**
+     * Registers node sub-nodes (recursively) in the object index. The first page is requested
+     * for expanded paged nodes without sub-nodes.
+     *
+     * @param node The node.
+     */
+    private void registerSubNodes(Node node) {
+        registerNodes(node.getSubNodes());
+    }
+
+    /**
+     * Registers nodes and their sub-nodes (recursively) in the object index, see
+     * registerSubNodes.
+     *
+     * @param nodes The nodes. Null is possible.
+     */
+    private void registerNodes(List<Node> nodes) {
+        if (nodes == null) {
+            return;
+        }
+        ArrayDeque<Node> stack = mTraversalStack;
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            stack.push(nodes.get(i));
+        }
+        while (!stack.isEmpty()) {
+            Node subNode = stack.pop();
+            mNodeIndex.put(subNode.getObject(), subNode);
+            if (subNode.isExpanded() && subNode.hasMorePages() && subNode.getSubNodes().isEmpty()) {
+                postPageRequest(subNode);
+            }
+            pushSubNodes(stack, subNode);
+        }
+    }
+
+    /**
+     * Pushes node sub-nodes to the traversal stack.
+     *
+     * @param stack The stack.
+     * @param node The node.
+     */
+    private static void pushSubNodes(ArrayDeque<Node> stack, Node node) {
+        List<Node> subNodes = node.getSubNodes();
+        if (subNodes != null) {
+            for (int i = subNodes.size() - 1; i >= 0; --i) {
+                stack.push(subNodes.get(i));
+            }
+        }
+    }
+
+    /**
+     * Gets stable id of the node.
+     *
+     * @param node The node.
+     * @return Object id provided by getStableId or node id.
+     */
+    private long getItemId(Node node) {
+        long id = getStableId(node.getObject());
+        return (id != AdapterView.INVALID_ROW_ID) ? id : node.getId();
+    }
+
+    /**
+     * Sets node sub-nodes, releasing nodes previously placed below the node. Rows changes are
+     * notified if the node is displayed.
+     *
+     * @param node The node.
+     * @param subNodes List of sub-nodes.
+     */
+    private void setSubNodes(Node node, List<Node> subNodes) {
+        int flatPos = getFlatPos(node);
+        boolean isDisplayed = (node == mRoot) || (flatPos >= 0);
+        int oldCount = node.getVisibleCount();
+
+        // nodes kept since the node or its descendants were collapsed are outdated
+        dropCachedSubtrees(Collections.singletonList(node));
+        releaseSubNodes(node);
+        node.setSubNodes(subNodes);
+        node.setNextPage(null, false);
+        registerSubNodes(node);
+        onNodeExtended(node);
+
+        if (isDisplayed) {
+            notifyRowsRemoved(flatPos + 1, oldCount);
+            notifyRowsInserted(flatPos + 1, node.getVisibleCount());
+            if (node != mRoot) {
+                notifyRowsChanged(flatPos, 1);
+            }
+        }
+    }
+
+    /**
+     * Clears node sub-nodes, releasing all nodes placed below the node. Rows changes are
+     * notified if the node is displayed.
+     *
+     * @param node The node.
+     */
+    private void clearSubNodes(Node node) {
+        if (node.isLoading()) {
+            cancelLoad(node);
+        }
+        if (!node.isExpanded()) {
+            return;
+        }
+        int flatPos = getFlatPos(node);
+        int oldCount = node.getVisibleCount();
+        List<Node> subNodes = node.getSubNodes();
+
+        releaseSubNodes(node);
+        node.clearSubNodes();
+        if (isOnExpandedPath(node)) {
+            mExpandedTail = node.getParent();
+        }
+        cacheSubNodes(node, subNodes);
+
+        if (flatPos >= 0) {
+            notifyRowsRemoved(flatPos + 1, oldCount);
+            notifyRowsChanged(flatPos, 1);
+        }
+    }
+
+    /**
+     * Keeps sub-nodes of collapsed node in the cache. Expanded sub-nodes are collapsed, so
+     * cached nodes are reattached the same way as if they were created again.
+     *
+     * @param node Collapsed node.
+     * @param subNodes Its sub-nodes.
+     */
+    private void cacheSubNodes(Node node, List<Node> subNodes) {
+        // empty lists are not cached, they wouldn't count against the cache size
+        if (subNodes.isEmpty() || subNodes.size() > mCollapsedCacheSize || node == mRoot
+                || mView.isAlwaysExpanded() || isPaged(node.getObject())) {
+            dropCachedSubtrees(subNodes);
+            return;
+        }
+        for (Node subNode : subNodes) {
+            if (subNode.isExpanded()) {
+                dropCachedSubtrees(subNode.getSubNodes());
+                subNode.clearSubNodes();
+            }
+        }
+        List<Node> previous = mCollapsedCache.put(node, subNodes);
+        mCollapsedCacheNodes += subNodes.size() - (previous != null ? previous.size() : 0);
+        evictCollapsed(mCollapsedCacheSize);
+    }
+
+    /**
+     * Takes cached sub-nodes of collapsed node.
+     *
+     * @param node The node.
+     * @return Cached sub-nodes, null if there are none.
+     */
+    private List<Node> takeCachedSubNodes(Node node) {
+        List<Node> subNodes = mCollapsedCache.remove(node);
+        if (subNodes != null) {
+            mCollapsedCacheNodes -= subNodes.size();
+        }
+        return subNodes;
+    }
+
+    /**
+     * Drops cached sub-nodes of collapsed node, with cached sub-nodes of collapsed nodes below.
+     *
+     * @param node The node.
+     */
+    private void dropCachedSubNodes(Node node) {
+        List<Node> subNodes = takeCachedSubNodes(node);
+        if (subNodes != null) {
+            dropCachedSubtrees(subNodes);
+        }
+    }
+
+    /**
+     * Drops cached sub-nodes of the nodes and of collapsed nodes below them, found through both
+     * attached and cached sub-nodes. Used when the nodes are released, so the cache doesn't keep
+     * nodes which can't be reattached.
+     *
+     * @param nodes The nodes.
+     */
+    private void dropCachedSubtrees(List<Node> nodes) {
+        if (mCollapsedCache.isEmpty()) {
+            return;
+        }
+        ArrayDeque<Node> stack = mTraversalStack;
+        for (Node node : nodes) {
+            stack.push(node);
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            List<Node> subNodes = takeCachedSubNodes(node);
+            if (subNodes != null) {
+                for (Node subNode : subNodes) {
+                    stack.push(subNode);
+                }
+            }
+            pushSubNodes(stack, node);
+        }
+    }
+
+    /**
+     * Evicts least recently collapsed nodes until the cache fits in given number of nodes.
+     *
+     * @param maxNodes Number of nodes.
+     */
+    private void evictCollapsed(int maxNodes) {
+        Iterator<List<Node>> it = mCollapsedCache.values().iterator();
+        while (mCollapsedCacheNodes > maxNodes && it.hasNext()) {
+            mCollapsedCacheNodes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Evicts cached sub-nodes which contain node of the object or which belong to it, together
+     * with cached sub-nodes of collapsed nodes below them. Used when sub-objects change under
+     * the object which is not displayed.
+     *
+     * @param object The object.
+     */
+    private void evictCachedObject(Object object) {
+        List<Node> evicted = new ArrayList<>();
+        Iterator<Map.Entry<Node, List<Node>>> it = mCollapsedCache.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Node, List<Node>> entry = it.next();
+            boolean isAffected = (entry.getKey().getObject() == object);
+            for (int i = 0; !isAffected && i < entry.getValue().size(); ++i) {
+                isAffected = (entry.getValue().get(i).getObject() == object);
+            }
+            if (isAffected) {
+                mCollapsedCacheNodes -= entry.getValue().size();
+                evicted.addAll(entry.getValue());
+                it.remove();
+            }
+        }
+        dropCachedSubtrees(evicted);
+    }
+
+    /**
+     * Updates expanded path after sub-nodes of the node were set.
+     *
+     * @param node The node.
+     */
+    private void onNodeExtended(Node node) {
+        if (mExpandedTail == null) {
+            return;
+        }
+        if (node.getParent() != mExpandedTail && !isOnExpandedPath(node)) {
+            // another branch is expanded
+            mExpandedTail = null;
+            return;
+        }
+        mExpandedTail = node;
+        for (Node subNode : node.getSubNodes()) {
+            if (subNode.isExpanded()) {
+                mExpandedTail = findExpandedTail(node);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Indicates if the node lies on tracked expanded path, i.e. it is the deepest expanded node
+     * or its ancestor.
+     *
+     * @param node The node.
+     * @return true if node is on expanded path, false otherwise or if path is not tracked.
+     */
+    private boolean isOnExpandedPath(Node node) {
+        if (mExpandedTail == null || node.getLevel() > mExpandedTail.getLevel()) {
+            return false;
+        }
+        Node pathNode = mExpandedTail;
+        while (pathNode.getLevel() > node.getLevel()) {
+            pathNode = pathNode.getParent();
+        }
+        return pathNode == node;
+    }
+
+    /**
+     * Finds the deepest expanded node, if expanded nodes below the node form a single branch.
+     *
+     * @param node The node, it has to be expanded.
+     * @return The deepest expanded node or null if more than one branch is expanded.
+     */
+    private Node findExpandedTail(Node node) {
+        Node tail = node;
+        while (true) {
+            Node expanded = null;
+            for (Node subNode : tail.getSubNodes()) {
+                if (subNode.isExpanded()) {
+                    if (expanded != null) {
+                        return null;
+                    }
+                    expanded = subNode;
+                }
+            }
+            if (expanded == null) {
+                return tail;
+            }
+            tail = expanded;
+        }
+    }
+
+    /**
+     * Removes node sub-nodes (recursively) from the object index.
+     *
+     * @param node The node.
+     */
+    private void releaseSubNodes(Node node) {
+        ArrayDeque<Node> stack = mTraversalStack;
+        pushSubNodes(stack, node);
+        while (!stack.isEmpty()) {
+            Node subNode = stack.pop();
+            if (mNodeIndex.get(subNode.getObject()) == subNode) {
+                mNodeIndex.remove(subNode.getObject());
+            }
+            if (subNode.isLoading()) {
+                cancelLoad(subNode);
+            }
+            pushSubNodes(stack, subNode);
+        }
+    }
+
+    /**
+     * Removes node and its sub-nodes (recursively) from the object index. Cached sub-nodes of
+     * the node and of its collapsed descendants are dropped.
+     *
+     * @param node The node.
+     */
+    private void releaseNode(Node node) {
+        if (mNodeIndex.get(node.getObject()) == node) {
+            mNodeIndex.remove(node.getObject());
+        }
+        dropCachedSubtrees(Collections.singletonList(node));
+        if (node.isLoading()) {
+            cancelLoad(node);
+        }
+        releaseSubNodes(node);
+    }
+
+    /**
+     * Registers the load and marks its node as loading.
+     *
+     * @param load The load to start.
+     */
+    private void startLoad(PendingLoad load) {
+        mNodeLoads.put(load.mNode, load);
+        if (load.mNode != mRoot) {
+            load.mNode.setLoading(true);
+            int flatPos = getFlatPos(load.mNode);
+            if (flatPos >= 0) {
+                notifyRowsChanged(flatPos, 1);
+                commitRowChanges();
+            }
+        }
+    }
+
+    /**
+     * Cancels loading of node sub-nodes, if started.
+     *
+     * @param node The node.
+     */
+    private void cancelLoad(Node node) {
+        PendingLoad load = mNodeLoads.remove(node);
+        if (load != null) {
+            load.mIsCancelled = true;
+        }
+        if (node.isLoading()) {
+            node.setLoading(false);
+            int flatPos = getFlatPos(node);
+            if (flatPos >= 0) {
+                notifyRowsChanged(flatPos, 1);
+            }
+        }
+    }
+
+    /**
+     * Publishes nodes built on the executor. Called on the UI thread.
+     *
+     * @param load The finished load.
+     */
+    private void publishLoad(NodeLoad load) {
+        if (load.mIsCancelled || mNodeLoads.get(load.mNode) != load) {
+            // superseded by another operation
+            return;
+        }
+        mNodeLoads.remove(load.mNode);
+        if (mView == null) {
+            return;
+        }
+
+        Node node = load.mNode;
+        if (node == mRoot) {
+            setDataNodes(matchSourceData(load.mDataItems, load.mResult));
+            sortIfOrderChanged(load);
+            return;
+        }
+
+        node.setLoading(false);
+        if (load.mNestType == NestType.SINGLE) {
+            clearPathToNode(node);
+        }
+        setSubNodes(node, load.mResult);
+        sortIfOrderChanged(load);
+        commitRowChanges();
+    }
+
+    /**
+     * Matches nodes built from a copy of data items with the current data items, which might be
+     * changed by insertItem, moveItem and deleteItem while the nodes were built. Nodes of removed
+     * objects are dropped and nodes of inserted objects are created.
+     *
+     * @param dataItems Data items the nodes were built for.
+     * @param nodes Built nodes.
+     * @return Nodes of the current data items.
+     */
+    private List<Node> matchSourceData(List<?> dataItems, List<Node> nodes) {
+        boolean isChanged = (dataItems.size() != mSourceData.size());
+        for (int i = 0; !isChanged && i < dataItems.size(); ++i) {
+            isChanged = (dataItems.get(i) != mSourceData.get(i));
+        }
+        if (!isChanged) {
+            return nodes;
+        }
+
+        Map<Object, Node> builtNodes = new IdentityHashMap<>();
+        for (Node node : nodes) {
+            builtNodes.put(node.getObject(), node);
+        }
+        List<Node> result = new ArrayList<>(mSourceData.size());
+        for (int i = 0; i < mSourceData.size(); ++i) {
+            Object object = mSourceData.get(i);
+            Node node = builtNodes.remove(object);
+            if (node == null) {
+                node = createNodeListFromDataItems(Collections.singletonList(object), mRoot, mView.isAlwaysExpanded()).get(0);
+            }
+            node.setSourceIdx(i);
+            result.add(node);
+        }
+        if (mSortOrder != null) {
+            Collections.sort(result, mSortOrder);
+        }
+        return result;
+    }
+
+    /**
+     * Requests page of node sub-objects.
+     *
+     * @param node The node.
+     * @param pageToken Token of the page, null for the first page.
+     */
+    private void requestPage(Node node, Object pageToken) {
+        PageLoad load = new PageLoad(node);
+        startLoad(load);
+        loadSubObjectsPage(node.getObject(), pageToken, mPageSize, load);
+    }
+
+    /**
+     * Requests next page of sub-objects if the row displaying the node is close to the end of
+     * loaded sub-nodes of its parent. Called while rows are bound, so the request, which
+     * changes the parent row, is posted.
+     *
+     * @param node The node being bound.
+     */
+    private void requestNextPageIfNeeded(Node node) {
+        Node parent = node.getParent();
+        if (parent == null || !parent.hasMorePages() || parent.isLoading()) {
+            return;
+        }
+        int prefetchDistance = Math.max(1, mPageSize / 4);
+        if (node.getIdxInLevel() < parent.getSubNodes().size() - prefetchDistance) {
+            return;
+        }
+        postPageRequest(parent);
+    }
+
+    /**
+     * Posts request of the next page of node sub-objects, unless one is posted already. Rows
+     * are changed by the request, so it is not made while rows are bound or nodes are attached.
+     *
+     * @param parent The node.
+     */
+    private void postPageRequest(final Node parent) {
+        if (!mPageRequests.add(parent)) {
+            return;
+        }
+        getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                mPageRequests.remove(parent);
+                // parent may be collapsed or released before the request
+                if (parent.hasMorePages() && !parent.isLoading() && parent.isExpanded()
+                        && (parent == mRoot || getFlatPos(parent) >= 0)) {
+                    requestPage(parent, parent.getNextPageToken());
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends loaded page of sub-objects to the node. Called on the UI thread.
+     *
+     * @param load The finished load.
+     * @param subObjects Loaded sub-objects.
+     * @param nextPageToken Token of the next page, null if the page is the last one.
+     */
+    private void publishPage(PageLoad load, List<?> subObjects, Object nextPageToken) {
+        if (load.mIsCancelled || mNodeLoads.get(load.mNode) != load) {
+            return;
+        }
+        mNodeLoads.remove(load.mNode);
+
+        Node node = load.mNode;
+        node.setLoading(false);
+        node.setNextPage(nextPageToken, nextPageToken != null);
+
+        int flatPos = getFlatPos(node);
+        int oldCount = node.getVisibleCount();
+        List<Node> nodes = createNodeListFromDataItems(subObjects, node, mView.isAlwaysExpanded());
+        List<Node> subNodes = node.getSubNodes();
+        // page sub-nodes follow previously loaded ones in the source order
+        int sourceIdx = subNodes.isEmpty() ? 0 : subNodes.get(subNodes.size() - 1).getSourceIdx() + 1;
+        for (Node subNode : nodes) {
+            subNode.setSourceIdx(sourceIdx++);
+        }
+        node.appendSubNodes(nodes);
+        registerNodes(nodes);
+
+        if (flatPos >= 0) {
+            // rows of previously loaded sub-nodes get the new level size when bound again
+            notifyRowsChanged(flatPos, 1);
+            notifyRowsInserted(flatPos + oldCount + 1, node.getVisibleCount() - oldCount);
+        }
+        commitRowChanges();
+    }
+
+    /**
+     * Stops loading pages of node sub-objects after failure. Called on the UI thread.
+     *
+     * @param load The failed load.
+     */
+    private void failPage(PageLoad load) {
+        if (load.mIsCancelled || mNodeLoads.get(load.mNode) != load) {
+            return;
+        }
+        load.mNode.setNextPage(null, false);
+        cancelLoad(load.mNode);
+        commitRowChanges();
+    }
+
+    /**
+     * Gets handler used to publish nodes built on the executor.
+     *
+     * @return The handler.
+     */
+    Handler getMainHandler() {
+        if (mMainHandler == null) {
+            mMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mMainHandler;
+    }
+
+    /**
+     * Gets number of currently displayed items.
+     *
+     * @return Number of items.
+     */
+    int getFlatCount() {
+        if (mRowSource != null) {
+            return mRowSource.getCount();
+        }
+        return mRoot.getVisibleCount();
+    }
+
+    /**
+     * Gets node displayed at the position.
+     *
+     * The node is found by walking down the tree, so the cost is O(depth * log(fan-out)).
+     *
+     * @param flatPos Position in displayed list of items.
+     * @return The node or null if position is out of range.
+     */
+    Node getNode(int flatPos) {
+        if (mRowSource != null) {
+            return mRowSource.getNode(flatPos);
+        }
+        if (flatPos < 0 || flatPos >= getFlatCount()) {
+            return null;
+        }
+        // called for each bound row, the offset holder is reused
+        int[] offset = mRowOffset;
+        offset[0] = flatPos;
+        Node node = mRoot;
+        do {
+            node = node.getSubNodes().get(node.findSubNode(offset[0], offset));
+            offset[0]--;
+        } while (offset[0] >= 0);
+        return node;
+    }
+
+    /**
+     * Gets position of the node in currently displayed list of items.
+     *
+     * The position is computed by walking up the tree, so the cost is O(depth * log(fan-out)).
+     *
+     * @param node The node.
+     * @return Node position or -1 if node is not displayed.
+     */
+    int getFlatPos(Node node) {
+        if (node == mRoot) {
+            return -1;
+        }
+        if (mRowSource != null) {
+            return mRowSource.getFlatPos(node);
+        }
+        int flatPos = -1;
+        for (Node child = node; child != mRoot; child = child.getParent()) {
+            Node parent = child.getParent();
+            if (parent == null || !parent.isSubNode(child)) {
+                return -1;
+            }
+            flatPos += parent.getSubNodeOffset(child.getIdxInLevel()) + 1;
+        }
+        return flatPos;
+    }
+
+    /**
+     * Unregisters adapter in MultiLevelListView.
+     *
+     * @param view The view to unregister.
+     * @throws IllegalArgumentException if adapter is not registered in the view.
+     */
+    void unregisterView(MultiLevelListView view) {
+        if (mView != view) {
+            throw new IllegalArgumentException("Adapter not connected");
+        }
+
+        if (mView == null) {
+            return;
+        }
+
+        if (mView.getRecyclerView() != null) {
+            mView.getRecyclerView().setAdapter(null);
+        } else {
+            mView.getListView().setAdapter(null);
+        }
+        mView = null;
+    }
+
+    /**
+     * Register adapter in MultiLevelListView.
+     *
+     * @param view The view to register.
+     * @throws IllegalArgumentException if adapter is registered in different view.
+     */
+    void registerView(MultiLevelListView view) {
+        if ((mView != null) && (mView != view)) {
+            throw new IllegalArgumentException("Adapter already connected");
+        }
+
+        if (view == null) {
+            return;
+        }
+
+        mView = view;
+        if (mView.getRecyclerView() != null) {
+            if (mRecyclerProxyAdapter == null) {
+                mRecyclerProxyAdapter = new RecyclerProxyAdapter();
+            }
+            mView.getRecyclerView().setAdapter(mRecyclerProxyAdapter);
+        } else {
+            mView.getListView().setAdapter(mProxyAdapter);
+        }
+    }
+
+    /**
+     * Extends node.
+     *
+     * Adds sub-nodes to the node.
+     *
+     * @param node The node.
+     * @param nestTyp NestType value.
+     */
+    public void extendNode(Node node, NestType nestTyp) {
+        checkTreeStore();
+        cancelLoad(node);
+        if (isPaged(node.getObject())) {
+            if (nestTyp == NestType.SINGLE) {
+                clearPathToNode(node);
+            }
+            setSubNodes(node, new ArrayList<Node>());
+            node.setNextPage(null, true);
+            requestPage(node, null);
+            commitRowChanges();
+            return;
+        }
+        List<Node> cachedSubNodes = takeCachedSubNodes(node);
+        if (cachedSubNodes != null) {
+            // collapsed before, nodes are reattached
+            if (nestTyp == NestType.SINGLE) {
+                clearPathToNode(node);
+            }
+            Collections.sort(cachedSubNodes, (mSortOrder != null) ? mSortOrder : SortOrder.SOURCE_ORDER);
+            setSubNodes(node, cachedSubNodes);
+            commitRowChanges();
+            return;
+        }
+        if (mExecutor != null) {
+            NodeLoad load = new NodeLoad(node, null, null, mView.isAlwaysExpanded(), nestTyp, null);
+            startLoad(load);
+            mExecutor.execute(load);
+            return;
+        }
+        if (nestTyp == NestType.SINGLE) {
+            clearPathToNode(node);
+        }
+        setSubNodes(node, createNodeListFromDataItems(getSubObjects(node.getObject()), node, mView.isAlwaysExpanded()));
+        commitRowChanges();
+    }
+
+    /**
+     * Extends node and subnodes (recursively).
+     *
+     * Adds sub-nodes to the nodes.
+     *
+     * @param node The node.
+     * @param nestTyp NestType value.
+     */
+    public void extendNodeSubnodes(Node node, NestType nestTyp) {
+        checkTreeStore();
+        if (isPaged(node.getObject())) {
+            // only the first page is loaded
+            extendNode(node, nestTyp);
+            return;
+        }
+        cancelLoad(node);
+        if (mExecutor != null) {
+            NodeLoad load = new NodeLoad(node, null, null, true, nestTyp, null);
+            startLoad(load);
+            mExecutor.execute(load);
+            return;
+        }
+        if (nestTyp == NestType.SINGLE) {
+            clearPathToNode(node);
+        }
+        setSubNodes(node, createNodeListFromDataItems(getSubObjects(node.getObject()), node, true));
+        commitRowChanges();
+    }
+
+    /**
+     *
+     * @param pos
+     * @param nestTyp
+     */
+    public void extendNodeSubnodes(int pos, NestType nestTyp) {
+        Node node = getNode(pos);
+        if (node != null) {
+            extendNodeSubnodes(node, nestTyp);
+        }
+    }
+
+    /**
+     * Expands all items up to the level, items on deeper levels are collapsed. Level 0 collapses
+     * all items, level 1 expands top level items and so on.
+     *
+     * Done in a single traversal of displayed nodes, nodes are created only for newly expanded
+     * items and the attached view is notified once.
+     *
+     * @param depth Number of expanded levels.
+     */
+    public void expandToDepth(int depth) {
+        checkTreeStore();
+        if (mRoot.isExpanded()) {
+            expandSubtree(mRoot, depth);
+        }
+    }
+
+    /**
+     * Expands the node and all its descendants in a single traversal.
+     *
+     * @param node The node.
+     */
+    public void expandAll(Node node) {
+        checkTreeStore();
+        expandSubtree(node, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Expands item at the position and all its descendants.
+     *
+     * @param flatPos Item position.
+     */
+    public void expandAll(int flatPos) {
+        Node node = getNode(flatPos);
+        if (node != null) {
+            expandAll(node);
+        }
+    }
+
+    /**
+     * Collapses all descendants of the node, the node itself stays expanded. The attached view
+     * is notified once.
+     *
+     * @param node The node.
+     */
+    public void collapseAll(Node node) {
+        checkTreeStore();
+        if (!node.isExpanded()) {
+            return;
+        }
+        beginBatch();
+        try {
+            for (Node subNode : node.getSubNodes()) {
+                clearSubNodes(subNode);
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Collapses all descendants of item at the position.
+     *
+     * @param flatPos Item position.
+     */
+    public void collapseAll(int flatPos) {
+        Node node = getNode(flatPos);
+        if (node != null) {
+            collapseAll(node);
+        }
+    }
+
+    /**
+     * Expands the node and its descendants on levels lower than the level, expanded nodes on
+     * the level and deeper are collapsed. Sub-objects of paged items are not loaded.
+     *
+     * If the executor is set, levels below collapsed nodes are built by loads started for them.
+     *
+     * New sub-nodes are collected during the traversal and attached afterwards in reverse
+     * order, so visible counts are propagated to displayed ancestors once per expanded branch.
+     *
+     * @param node The node.
+     * @param maxLevel Level from which nodes are collapsed.
+     */
+    private void expandSubtree(Node node, int maxLevel) {
+        beginBatch();
+        try {
+            List<Node> parents = new ArrayList<>();
+            List<List<Node>> subNodeLists = new ArrayList<>();
+            ArrayDeque<Node> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                Node parent = stack.pop();
+                if (parent.getLevel() >= maxLevel) {
+                    cancelLoad(parent);
+                    clearSubNodes(parent);
+                    continue;
+                }
+                if (parent != mRoot && (!parent.isExpandable() || isPaged(parent.getObject()))) {
+                    continue;
+                }
+                List<Node> subNodes = parent.getSubNodes();
+                if (subNodes == null) {
+                    cancelLoad(parent);
+                    subNodes = takeCachedSubNodes(parent);
+                    if (subNodes != null) {
+                        Collections.sort(subNodes, (mSortOrder != null) ? mSortOrder : SortOrder.SOURCE_ORDER);
+                    } else if (mExecutor != null) {
+                        // the whole subtree of the node is built by the load
+                        NodeLoad load = new NodeLoad(parent, maxLevel);
+                        startLoad(load);
+                        mExecutor.execute(load);
+                        continue;
+                    } else {
+                        subNodes = createNodeListFromDataItems(getSubObjects(parent.getObject()), parent, false);
+                    }
+                    parents.add(parent);
+                    subNodeLists.add(subNodes);
+                }
+                for (int i = subNodes.size() - 1; i >= 0; --i) {
+                    stack.push(subNodes.get(i));
+                }
+            }
+
+            for (int i = parents.size() - 1; i >= 0; --i) {
+                Node parent = parents.get(i);
+                parent.setSubNodes(subNodeLists.get(i));
+                for (Node subNode : subNodeLists.get(i)) {
+                    mNodeIndex.put(subNode.getObject(), subNode);
+                }
+            }
+            if (!parents.isEmpty()) {
+                // more than one branch may be expanded, path is not tracked
+                mExpandedTail = null;
+                notifyDataSetChanged();
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Extends all nodes leading to the object.
+     *
+     * Hierarchy is climbed with getParent until displayed ancestor is found, then the whole
+     * path is extended in a single pass by extendPath.
+     *
+     * @param nodeObj The object.
+     * @param expandItems Stack used to collect not displayed ancestors. Null is possible.
+     * @return Object position, -1 if object can't be reached, -2 if object is the root.
+     */
+    public int extendToNode(Object nodeObj, Stack<Object> expandItems) {
+        if (nodeObj == null) {
+            return -1;
+        }
+        if (nodeObj == mRoot.getObject()) {
+            return -2;
+        }
+        if (expandItems == null) {
+            expandItems = new Stack<>();
+        }
+        if (mRowSource != null) {
+            return getRowSourcePos(nodeObj, expandItems);
+        }
+
+        // add not displayed ancestors to stack
+        Object displayedObj = nodeObj;
+        while (getPosFromObject(displayedObj) < 0) {
+            expandItems.push(displayedObj);
+            displayedObj = getParent(displayedObj);
+            if (displayedObj == null) {
+                return -1;
+            }
+            if (displayedObj == mRoot.getObject()) {
+                return -2;
+            }
+        }
+
+        List<Object> path = new ArrayList<>(expandItems.size() + 1);
+        path.add(displayedObj);
+        while (!expandItems.isEmpty()) {
+            path.add(expandItems.pop());
+        }
+        return extendPath(path);
+    }
+
+    /**
+     * Gets position of the object in rows provided by row source, all rows are displayed.
+     *
+     * @param nodeObj The object.
+     * @param expandItems Stack used to collect ancestors.
+     * @return Object position, -1 if object can't be reached, -2 if object is the root.
+     */
+    private int getRowSourcePos(Object nodeObj, Stack<Object> expandItems) {
+        for (Object object = nodeObj; object != mRoot.getObject(); object = getParent(object)) {
+            if (object == null) {
+                return -1;
+            }
+            expandItems.push(object);
+        }
+        List<Object> path = new ArrayList<>(expandItems.size());
+        while (!expandItems.isEmpty()) {
+            path.add(expandItems.pop());
+        }
+        return mRowSource.getFlatPos(path);
+    }
+
+    /**
+     * Extends nodes on the path in a single pass.
+     *
+     * Each object on the path has to be a sub-object of the previous one. The first object
+     * has to be displayed or it has to be the root object. Only collapsed nodes on the
+     * path are extended and the attached view is notified once. Sub-nodes of expanded nodes
+     * are kept, so the path can't be followed through sub-objects they don't display.
+     *
+     * With executor set, the rest of the path below the first collapsed node without cached
+     * sub-nodes is built on the executor, -1 is returned then.
+     *
+     * @param path Objects from the top-most ancestor to the target object.
+     * @return Target object position or -1 if the path can't be followed (yet).
+     */
+    public int extendPath(List<?> path) {
+        checkState();
+        if (mRowSource != null) {
+            boolean isFromRoot = !path.isEmpty() && path.get(0) == mRoot.getObject();
+            return mRowSource.getFlatPos(isFromRoot ? path.subList(1, path.size()) : path);
+        }
+
+        Node node = null;
+        boolean isChanged = false;
+        for (Object object : path) {
+            if (node == null) {
+                // start from the root or from displayed node
+                node = (object == mRoot.getObject()) ? mRoot : mNodeIndex.get(object);
+                if (node == null || (node != mRoot && getFlatPos(node) < 0)) {
+                    node = null;
+                    break;
+                }
+                continue;
+            }
+            boolean isPagedNode = (node != mRoot && isPaged(node.getObject()));
+            if (isPagedNode && !node.isExpanded() && node.isExpandable()) {
+                // sub-objects are loaded page by page, the path can be followed once loaded
+                extendNode(node, NestType.MULTIPLE);
+                node = null;
+                break;
+            }
+            boolean isCollapsed = !node.isExpanded() || (node.isLoading() && !isPagedNode);
+            if (isCollapsed && node != mRoot && node.isExpandable()) {
+                cancelLoad(node);
+                List<Node> subNodes = takeCachedSubNodes(node);
+                if (subNodes != null) {
+                    Collections.sort(subNodes, (mSortOrder != null) ? mSortOrder : SortOrder.SOURCE_ORDER);
+                } else if (mExecutor != null) {
+                    // rest of the path is expanded when the nodes are built
+                    Stack<Object> expandItems = new Stack<>();
+                    for (int i = path.size() - 1; path.get(i) != node.getObject(); --i) {
+                        expandItems.push(path.get(i));
+                    }
+                    NodeLoad load = new NodeLoad(node, null, expandItems, mView.isAlwaysExpanded(), NestType.MULTIPLE, null);
+                    startLoad(load);
+                    mExecutor.execute(load);
+                    node = null;
+                    break;
+                } else {
+                    subNodes = createNodeListFromDataItems(getSubObjects(node.getObject()), node, mView.isAlwaysExpanded());
+                }
+                setSubNodes(node, subNodes);
+                isChanged = true;
+            }
+            Node subNode = mNodeIndex.get(object);
+            if (subNode == null || !node.isSubNode(subNode)) {
+                node = null;
+                break;
+            }
+            node = subNode;
+        }
+
+        if (isChanged) {
+            commitRowChanges();
+        }
+        return (node != null && node != mRoot) ? getFlatPos(node) : -1;
+    }
+
+    /**
+     * Collapse node.
+     *
+     * Clears node's sub-nodes.
+     *
+     * @param node The node
+     */
+    public void collapseNode(Node node) {
+        checkTreeStore();
+        cancelLoad(node);
+        clearSubNodes(node);
+        commitRowChanges();
+    }
+
+    /**
+     * Toggle node is expanded/collapsed.
+     * @param flatPos
+     */
+    public void toggleNodeExpand(int flatPos) {
+        checkTreeStore();
+        Node node = getNode(flatPos);
+        if (node == null)
+            return;
+        if (node.isExpanded() || node.isLoading()) {
+            collapseNode(node);
+        } else {
+            extendNode(node, NestType.MULTIPLE);
+        }
+    }
+
+    /**
+     * Collapse any extended way not leading to the node.
+     *
+     * @param node The node.
+     */
+    private void clearPathToNode(Node node) {
+        if (mExpandedTail != null) {
+            // only the branch diverging from the path to the node is expanded
+            Node branch = findDivergingBranch(node);
+            if (branch != null) {
+                clearSubNodes(branch);
+            }
+            return;
+        }
+
+        Node target = node;
+        for (Node parent = node.getParent(); parent != null; node = parent, parent = node.getParent()) {
+            List<Node> nodes = parent.getSubNodes();
+            if (nodes != null) {
+                for (Node sibling : nodes) {
+                    if (sibling != node) {
+                        clearSubNodes(sibling);
+                    }
+                }
+            }
+        }
+        mExpandedTail = target.isExpanded() ? findExpandedTail(target) : target.getParent();
+    }
+
+    /**
+     * Finds node on expanded path, which is a sub-node of the closest common ancestor of the
+     * node and the deepest expanded node.
+     *
+     * @param node The node.
+     * @return Node starting expanded branch not leading to the node, null if there is no such branch.
+     */
+    private Node findDivergingBranch(Node node) {
+        Node pathNode = mExpandedTail;
+        Node branch = null;
+        while (node.getLevel() > pathNode.getLevel()) {
+            node = node.getParent();
+        }
+        while (pathNode.getLevel() > node.getLevel()) {
+            branch = pathNode;
+            pathNode = pathNode.getParent();
+        }
+        if (pathNode == node) {
+            // the node lies on expanded path or below it
+            return null;
+        }
+        while (pathNode != node) {
+            branch = pathNode;
+            pathNode = pathNode.getParent();
+            node = node.getParent();
+        }
+        return branch;
+    }
+
+    /**
+     * Swap two items in flat list. Source order of the items is swapped as well.
+     * @param flatPos Position in flat list
+     * @param nodePos Position in node
+     * @param nodePos2 Position in node
+     * @return
+     */
+    public boolean swapItems(int flatPos, int nodePos, int nodePos2) {
+        checkTreeStore();
+        if (nodePos < 0 || nodePos2 < 0 || nodePos == nodePos2)
+            return false;
+        Node node = getNode(flatPos);
+        if (node != null && node.getParent() != null) {
+            List<Node> subNodes = node.getParent().getSubNodes();
+            int size = subNodes.size();
+            if (nodePos < size && nodePos2 < size) {
+                Node first = subNodes.get(Math.min(nodePos, nodePos2));
+                Node second = subNodes.get(Math.max(nodePos, nodePos2));
+                int firstPos = getFlatPos(first);
+                int secondPos = getFlatPos(second);
+                int firstRows = first.getRowCount();
+                int secondRows = second.getRowCount();
+
+                Collections.swap(subNodes, nodePos, nodePos2);
+                node.getParent().setSubNodes(subNodes);
+                swapSourceOrder(first, second);
+                if (mFilter != null) {
+                    // unfiltered nodes are sorted by source order when the filter is cleared
+                    Node unfilteredFirst = findUnfilteredNode(first.getObject());
+                    Node unfilteredSecond = findUnfilteredNode(second.getObject());
+                    if (unfilteredFirst != null && unfilteredSecond != null
+                            && unfilteredFirst.getParent() == unfilteredSecond.getParent()) {
+                        swapSourceOrder(unfilteredFirst, unfilteredSecond);
+                    }
+                }
+
+                // second block goes in place of the first one, first block follows rows between them
+                notifyRowsMoved(secondPos, firstPos, secondRows);
+                notifyRowsMoved(firstPos + secondRows, secondPos + secondRows - firstRows, firstRows);
+                notifyRowsChanged(firstPos, 1);
+                notifyRowsChanged(getFlatPos(first), 1);
+                commitRowChanges();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Swaps source indices of two sibling nodes, so sorting by source order and placing
+     * inserted nodes keep the swap. Swapped top level objects are swapped in data items too.
+     *
+     * @param first First node.
+     * @param second Second node.
+     */
+    private void swapSourceOrder(Node first, Node second) {
+        int sourceIdx = first.getSourceIdx();
+        first.setSourceIdx(second.getSourceIdx());
+        second.setSourceIdx(sourceIdx);
+        if (first.getParent() == mRoot) {
+            int firstIdx = -1;
+            int secondIdx = -1;
+            for (int i = 0; i < mSourceData.size(); ++i) {
+                if (mSourceData.get(i) == first.getObject()) {
+                    firstIdx = i;
+                } else if (mSourceData.get(i) == second.getObject()) {
+                    secondIdx = i;
+                }
+            }
+            if (firstIdx >= 0 && secondIdx >= 0) {
+                Collections.swap(mSourceData, firstIdx, secondIdx);
+            }
+        }
+    }
+
+    /**
+     * Moves item with its subtree under the parent object.
+     *
+     * Node of the item is detached with its sub-nodes and attached to the parent, so only
+     * levels of the moved subtree, indices of siblings on both sides and moved rows change.
+     * Sub-objects provided by the adapter have to reflect the move already. Item moved under
+     * collapsed parent is no longer displayed, item which was not displayed is inserted.
+     *
+     * @param object Moved object.
+     * @param parentObj New parent object, null (or root object) for top level items.
+     * @param index Index of the object within new parent sub-objects.
+     * @return Position of moved item, -1 if item is not displayed.
+     * @throws IllegalArgumentException if the parent is the object or its descendant.
+     */
+    public int moveItem(Object object, Object parentObj, int index) {
+        checkTreeStore();
+        Node node = mNodeIndex.get(object);
+        boolean isRoot = (parentObj == null || parentObj == mRoot.getObject());
+        Node parent = isRoot ? mRoot : mNodeIndex.get(parentObj);
+        for (Node ancestor = parent; node != null && ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor == node) {
+                throw new IllegalArgumentException("Item can't be moved into its own subtree");
+            }
+        }
+
+        if (node == null || node.getParent() == mRoot) {
+            // top level object may be hidden by the filter
+            removeSourceData(object);
+        }
+        Node unfilteredNode = removeFiltered(object);
+        if (node == null) {
+            // collapsed former parent may keep the node in the cache
+            evictCachedObject(object);
+            return insertItem(parentObj, index, object, unfilteredNode);
+        }
+        if (isRoot) {
+            mSourceData.add(index, object);
+        }
+        // moved subtree keeps its matches
+        insertFiltered(isRoot ? null : parentObj, index, object, unfilteredNode);
+        if (parent == null) {
+            evictCachedObject(parentObj);
+        }
+        return moveItem(node, parent, index);
+    }
+
+    /**
+     * Moves the node with its subtree under the parent node.
+     *
+     * @param node Moved node.
+     * @param parent New parent node, null if the parent is not displayed.
+     * @param index Index of the node object within new parent sub-objects.
+     * @return Position of moved item, -1 if item is not displayed.
+     */
+    int moveItem(Node node, Node parent, int index) {
+        SelectionModel.MovedSelection movedSelection = (mSelectionModel != null) ? mSelectionModel.detach(node.getObject()) : null;
+        Node oldParent = node.getParent();
+        int oldPos = getFlatPos(node);
+        int rows = node.getRowCount();
+        if (node.isExpanded()) {
+            mExpandedTail = null;
+        }
+        oldParent.removeSubNode(node.getIdxInLevel());
+        if (mFilter != null && parent != null && parent.isExpanded() && isSortable(parent)) {
+            index = getFilteredIndex(parent, index);
+        }
+
+        int flatPos = -1;
+        if (parent != null && parent.isExpanded() && !parent.isLoading()
+                && !(parent.hasMorePages() && index >= parent.getSubNodes().size())) {
+            node.setParent(parent);
+            updateMovedSubtree(node);
+            parent.insertSubNode(placeSubNode(parent.getSubNodes(), isSortable(parent), index, node), node);
+            flatPos = getFlatPos(node);
+            notifyRowsMoved(oldPos, flatPos, rows);
+            // levels of moved rows changed
+            notifyRowsChanged(flatPos, rows);
+            notifyParentChanged(oldParent);
+            notifySiblingsChanged(parent, node);
+        } else {
+            releaseNode(node);
+            notifyRowsRemoved(oldPos, rows);
+            notifyParentChanged(oldParent);
+            if (parent != null) {
+                skipSubNode(parent);
+            }
+        }
+
+        if (movedSelection != null) {
+            mSelectionModel.attach(node.getObject(), movedSelection);
+        }
+        commitRowChanges();
+        return flatPos;
+    }
+
+    /**
+     * Updates levels of sub-nodes of the moved node. Loads of moved nodes are cancelled and
+     * their cached sub-nodes dropped, as they were built for former levels.
+     *
+     * @param node Moved node.
+     */
+    private void updateMovedSubtree(Node node) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node movedNode = stack.pop();
+            if (movedNode.isLoading()) {
+                cancelLoad(movedNode);
+            }
+            if (!movedNode.isExpanded()) {
+                dropCachedSubNodes(movedNode);
+                continue;
+            }
+            for (Node subNode : movedNode.getSubNodes()) {
+                subNode.setParent(movedNode);
+                stack.push(subNode);
+            }
+        }
+    }
+
+    /**
+     * Add item to some node.
+     * @param flatPos position of node on which need to create a new node. May be parent or adjacent
+     * @param isSubNode is branch {@param flatPos} parent
+     * @return
+     */
+    public boolean addItem(int flatPos, boolean isSubNode) {
+        Node parentNode = getNode(flatPos);
+        if (parentNode == null)
+            return false;
+        if (!isSubNode) {
+            parentNode = (parentNode != null) ? parentNode.getParent() : mRoot;
+        }
+        return addItem(parentNode);
+    }
+
+    public boolean addItem(Object parentNodeObj) {
+        Stack<Object> expandHierarchy = new Stack<>();
+        int flatPos = extendToNode(parentNodeObj, expandHierarchy);
+        if (flatPos == -2) {
+            return addItem(mRoot);
+        }
+        return addItem(flatPos, true);
+    }
+
+    /**
+     * Add item to some node.
+     * @param flatPos
+     * @return
+     */
+    public boolean addItem(int flatPos) {
+        return addItem(flatPos, true);
+    }
+
+    /**
+     * Add item to the root.
+     * @return
+     */
+    public boolean addItem() {
         return addItem(mRoot);
     }
 
@@ -478,47 +2658,391 @@ public abstract class MultiLevelListAdapter {
      * @return
      */
     public boolean addItem(Node parentNode) {
-        parentNode.setSubNodes(createNodeListFromDataItems(getSubObjects(parentNode.getObject()), parentNode));
+        if (mRowSource != null) {
+            // sub-objects were changed
+            mRowSource.invalidate(parentNode);
+            notifyDataSetChanged();
+            return true;
+        }
+        cancelLoad(parentNode);
+        dropFilterState();
+        setSubNodes(parentNode, createNodeListFromDataItems(getSubObjects(parentNode.getObject()), parentNode, mView.isAlwaysExpanded()));
         parentNode.setExpandable(true);
-        notifyDataSetChanged();
+        commitRowChanges();
         return true;
     }
 
+    /**
+     * Inserts item for the object added to sub-objects of the parent object.
+     *
+     * Only node of the inserted object is created, siblings are not re-queried and keep their
+     * nodes. If parent is collapsed, only its expandable state is updated.
+     *
+     * @param parentObj Parent object, null (or root object) for top level items.
+     * @param index Index of the object within parent sub-objects.
+     * @param object Inserted object.
+     * @return Position of inserted item, -1 if item is not displayed.
+     */
+    public int insertItem(Object parentObj, int index, Object object) {
+        return insertItem(parentObj, index, object, null);
+    }
+
+    /**
+     * Inserts item for the object added to sub-objects of the parent object.
+     *
+     * @param parentObj Parent object, null (or root object) for top level items.
+     * @param index Index of the object within parent sub-objects.
+     * @param object Inserted object.
+     * @param unfilteredNode Node of moved object kept while filter is set, null is possible.
+     * @return Position of inserted item, -1 if item is not displayed.
+     */
+    private int insertItem(Object parentObj, int index, Object object, Node unfilteredNode) {
+        boolean isRoot = (parentObj == null || parentObj == mRoot.getObject());
+        if (isRoot) {
+            mSourceData.add(index, object);
+        }
+        if (mRowSource != null) {
+            int parentPos = isRoot ? -2 : getRowSourcePos(parentObj, new Stack<Object>());
+            if (parentPos == -1) {
+                return -1;
+            }
+            // sub-objects were changed
+            mRowSource.invalidate(parentPos == -2 ? mRoot : mRowSource.getNode(parentPos));
+            notifyDataSetChanged();
+            return Math.max(getRowSourcePos(object, new Stack<Object>()), -1);
+        }
+        Node parent = isRoot ? mRoot : mNodeIndex.get(parentObj);
+        boolean isDisplayed = insertFiltered(isRoot ? null : parentObj, index, object, unfilteredNode);
+        if (parent == null) {
+            // collapsed ancestor may keep node of the parent in the cache
+            evictCachedObject(parentObj);
+            return -1;
+        }
+        if (!isDisplayed) {
+            skipSubNode(parent);
+            commitRowChanges();
+            return -1;
+        }
+        return insertItem(parent, index, object);
+    }
+
+    /**
+     * Inserts item for the object added to sub-objects of the parent node.
+     *
+     * @param parent Parent node.
+     * @param index Index of the object within parent sub-objects.
+     * @param object Inserted object.
+     * @return Position of inserted item, -1 if item is not displayed.
+     */
+    int insertItem(Node parent, int index, Object object) {
+        checkTreeStore();
+        if (mFilter != null && parent.isExpanded() && isSortable(parent)) {
+            index = getFilteredIndex(parent, index);
+        }
+        if (!parent.isExpanded() || parent.isLoading()
+                || (parent.hasMorePages() && index >= parent.getSubNodes().size())) {
+            skipSubNode(parent);
+            commitRowChanges();
+            return -1;
+        }
+
+        boolean alwaysExpanded = mView.isAlwaysExpanded();
+        Node node = createNodeListFromDataItems(Collections.singletonList(object), parent, alwaysExpanded).get(0);
+        parent.insertSubNode(placeSubNode(parent.getSubNodes(), isSortable(parent), index, node), node);
+        mNodeIndex.put(object, node);
+        registerSubNodes(node);
+        if (node.isExpanded()) {
+            mExpandedTail = null;
+        }
+
+        int flatPos = getFlatPos(node);
+        notifyRowsInserted(flatPos, node.getRowCount());
+        notifySiblingsChanged(parent, node);
+        commitRowChanges();
+        return flatPos;
+    }
+
+    /**
+     * Updates the parent which sub-object was inserted without creating its node. Sub-node is
+     * created when the parent is extended or page is loaded.
+     *
+     * @param parent Parent node.
+     */
+    private void skipSubNode(Node parent) {
+        dropCachedSubNodes(parent);
+        if (!parent.isExpandable() && parent != mRoot) {
+            parent.setExpandable(true);
+            notifyRowsChanged(getFlatPos(parent), 1);
+        }
+    }
+
+    /**
+     * Assigns source index to the node inserted into sub-nodes of the parent and finds its
+     * position. Sorted sub-nodes are kept sorted.
+     *
+     * @param subNodes Sub-nodes of the parent.
+     * @param isSortable Indicates if sub-nodes are sorted, see isSortable.
+     * @param index Index of the node object within parent sub-objects.
+     * @param node Inserted node.
+     * @return Sub-node index of the node.
+     */
+    private int placeSubNode(List<Node> subNodes, boolean isSortable, int index, Node node) {
+        if (mSortOrder != null && isSortable) {
+            // source indices of siblings may have gaps left by removed nodes
+            List<Node> siblings = new ArrayList<>(subNodes);
+            Collections.sort(siblings, SortOrder.SOURCE_ORDER);
+            for (int i = 0; i < siblings.size(); ++i) {
+                siblings.get(i).setSourceIdx(i < index ? i : i + 1);
+            }
+            node.setSourceIdx(index);
+            // source index breaks ties, so the node is never found
+            return -Collections.binarySearch(subNodes, node, mSortOrder) - 1;
+        }
+        // sub-nodes are in source order, source indices are increased until a gap
+        int sourceIdx = (index > 0) ? subNodes.get(index - 1).getSourceIdx() + 1 : 0;
+        node.setSourceIdx(sourceIdx);
+        for (int i = index; i < subNodes.size() && subNodes.get(i).getSourceIdx() <= sourceIdx; ++i) {
+            subNodes.get(i).setSourceIdx(++sourceIdx);
+        }
+        return index;
+    }
+
+    /**
+     * Notifies rows changed after the node was inserted into sub-nodes of the parent: siblings
+     * changed their index and level size, parent becomes expandable.
+     *
+     * @param parent Parent node.
+     * @param node Inserted node.
+     */
+    private void notifySiblingsChanged(Node parent, Node node) {
+        int parentPos = getFlatPos(parent);
+        notifySubNodesChanged(parent, parentPos, node);
+        if (parent != mRoot && !parent.isExpandable()) {
+            parent.setExpandable(true);
+            notifyRowsChanged(parentPos, 1);
+        }
+    }
+
     /**
      * Delete item.
+     *
+     * The node is removed by its index within level together with its visible subtree, only
+     * following siblings are renumbered.
      * @param flatPos
      * @return
      */
     public boolean deleteItem(int flatPos) {
-        if (flatPos < 0 || flatPos >= mFlatItems.size())
+        checkTreeStore();
+        Node node = getNode(flatPos);
+        if (node == null || node.getParent() == null) {
             return false;
-        Node node = mFlatItems.get(flatPos);
-        if (node != null && node.getParent() != null) {
-            List<Node> subNodes = node.getParent().getSubNodes();
-            if (subNodes.size() > 0) {
-                subNodes.remove(node);
+        }
+        Node parent = node.getParent();
+        if (parent == mRoot) {
+            removeSourceData(node.getObject());
+        }
+        removeFiltered(node.getObject());
+        int rows = node.getRowCount();
+        boolean isOnPath = isOnExpandedPath(node);
+        if (mSelectionModel != null) {
+            mSelectionModel.remove(node.getObject());
+        }
+        parent.removeSubNode(node.getIdxInLevel());
+        releaseNode(node);
+        if (isOnPath) {
+            mExpandedTail = parent;
+        }
+        notifyRowsRemoved(flatPos, rows);
+        notifyParentChanged(parent);
+        commitRowChanges();
+        return true;
+    }
+
+    /**
+     * Deletes items in a single pass.
+     *
+     * Items below other deleted items are removed with their ancestors. Sub-nodes of each
+     * affected parent are compacted once, regardless of number of deleted sub-nodes.
+     *
+     * @param flatPositions Positions of deleted items.
+     * @return Number of deleted items, not counting their descendants.
+     */
+    public int deleteItems(int... flatPositions) {
+        checkTreeStore();
+        Set<Node> nodes = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        for (int flatPos : flatPositions) {
+            Node node = getNode(flatPos);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
 
-                if (subNodes.isEmpty())
-                    node.getParent().setExpandable(false);
+        // positions with row counts, rows are removed starting from the last, so positions of
+        // preceding rows stay valid
+        long[] removedRows = new long[nodes.size()];
+        int count = 0;
+        Map<Node, BitSet> removedIndices = new IdentityHashMap<>();
+        Set<Object> topLevelObjects = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Node node : nodes) {
+            if (hasAncestorIn(node, nodes)) {
+                continue;
+            }
+            Node parent = node.getParent();
+            BitSet indices = removedIndices.get(parent);
+            if (indices == null) {
+                indices = new BitSet();
+                removedIndices.put(parent, indices);
+            }
+            indices.set(node.getIdxInLevel());
+            removedRows[count++] = ((long) getFlatPos(node) << 32) | node.getRowCount();
+            if (parent == mRoot) {
+                topLevelObjects.add(node.getObject());
+            }
+            removeFiltered(node.getObject());
+            if (mSelectionModel != null) {
+                mSelectionModel.remove(node.getObject());
+            }
+        }
+        removeSourceData(topLevelObjects);
 
-                notifyDataSetChanged();
+        for (Map.Entry<Node, BitSet> entry : removedIndices.entrySet()) {
+            Node parent = entry.getKey();
+            BitSet indices = entry.getValue();
+            List<Node> subNodes = parent.getSubNodes();
+            List<Node> removed = new ArrayList<>(indices.cardinality());
+            for (int idx = indices.nextSetBit(0); idx >= 0; idx = indices.nextSetBit(idx + 1)) {
+                Node node = subNodes.get(idx);
+                if (isOnExpandedPath(node)) {
+                    mExpandedTail = parent;
+                }
+                removed.add(node);
+            }
+            parent.removeSubNodes(indices);
+            for (Node node : removed) {
+                releaseNode(node);
+            }
+        }
+
+        Arrays.sort(removedRows, 0, count);
+        for (int i = count - 1; i >= 0; --i) {
+            notifyRowsRemoved((int) (removedRows[i] >>> 32), (int) removedRows[i]);
+        }
+        for (Node parent : removedIndices.keySet()) {
+            notifyParentChanged(parent);
+        }
+        commitRowChanges();
+        return count;
+    }
+
+    /**
+     * Removes top level object from data items.
+     *
+     * @param object Removed object.
+     */
+    private void removeSourceData(Object object) {
+        for (int i = 0; i < mSourceData.size(); ++i) {
+            if (mSourceData.get(i) == object) {
+                mSourceData.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes top level objects from data items in a single pass.
+     *
+     * @param objects Removed objects.
+     */
+    private void removeSourceData(Set<Object> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+        int idx = 0;
+        for (Object object : mSourceData) {
+            if (!objects.contains(object)) {
+                mSourceData.set(idx++, object);
+            }
+        }
+        mSourceData.subList(idx, mSourceData.size()).clear();
+    }
+
+    /**
+     * Indicates if any ancestor of the node belongs to the set.
+     *
+     * @param node The node.
+     * @param nodes Set of nodes.
+     * @return true if ancestor belongs to the set, false otherwise.
+     */
+    private static boolean hasAncestorIn(Node node, Set<Node> nodes) {
+        for (Node parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (nodes.contains(parent)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Notifies rows changed after sub-nodes of the parent were removed: siblings changed their
+     * index and level size, parent without sub-nodes is no longer expandable.
+     *
+     * @param parent Parent node.
+     */
+    private void notifyParentChanged(Node parent) {
+        int parentPos = getFlatPos(parent);
+        notifySubNodesChanged(parent, parentPos, null);
+        if (parent != mRoot) {
+            if (parent.getSubNodes().isEmpty()) {
+                parent.setExpandable(false);
+            }
+            notifyRowsChanged(parentPos, 1);
+        }
+    }
+
+    /**
+     * Notifies rows of the parent sub-nodes changed, e.g. their index or level size. Rows of
+     * their descendants don't change, so they are skipped, adjacent rows are notified at once.
+     *
+     * @param parent Parent node.
+     * @param parentPos Position of the parent.
+     * @param skipped Sub-node which rows are notified separately, null is possible.
+     */
+    private void notifySubNodesChanged(Node parent, int parentPos, Node skipped) {
+        if (!isRangeNotified()) {
+            mIsListChanged = true;
+            return;
+        }
+        if (parentPos < 0 && parent != mRoot) {
+            return;
+        }
+        int flatPos = parentPos + 1;
+        int first = flatPos;
+        int count = 0;
+        for (Node subNode : parent.getSubNodes()) {
+            if (subNode != skipped) {
+                if (flatPos != first + count) {
+                    notifyRowsChanged(first, count);
+                    first = flatPos;
+                    count = 0;
+                }
+                count++;
+            }
+            flatPos += subNode.getRowCount();
+        }
+        notifyRowsChanged(first, count);
+    }
+
     /**
      * Get node position by object.
+     *
+     * The node is taken from identity-keyed object index and its position is resolved by
+     * walking up the tree, so no scan of displayed items is needed.
      * @param nodeObj
      * @return
      */
     private int getPosFromObject(Object nodeObj) {
-        for (int i = 0; i < mFlatItems.size(); i++) {
-            if (mFlatItems.get(i).getObject() == nodeObj)
-                return i;
-        }
-        return -1;
+        Node node = mNodeIndex.get(nodeObj);
+        return (node != null && node != mRoot) ? getFlatPos(node) : -1;
     }
 
     /**
@@ -527,9 +3051,7 @@ public abstract class MultiLevelListAdapter {
      * @return
      */
     public boolean isExpanded(int flatPos) {
-        if (flatPos < 0 || flatPos >= mFlatItems.size())
-            return false;
-        Node node = mFlatItems.get(flatPos);
+        Node node = getNode(flatPos);
         if (node != null) {
             return node.isExpanded();
         }
@@ -545,29 +3067,443 @@ public abstract class MultiLevelListAdapter {
     }
 
     /**
-     * Helper class used to display created flat list of item's using Android's ListView.
+     * Gets RecyclerView used to display items.
+     *
+     * @return RecyclerView or null for LIST_VIEW engine.
+     */
+    protected RecyclerView getRecyclerView() {
+        return mView.getRecyclerView();
+    }
+
+    /**
+     * Helper class used to display items hierarchy using Android's ListView.
      */
     private class ProxyAdapter extends BaseAdapter {
 
         @Override
         public int getCount() {
-            return mFlatItems == null ? 0 : mFlatItems.size();
+            return getFlatCount();
         }
 
         @Override
         public Object getItem(int i) {
-            return mFlatItems.get(i);
+            return getNode(i);
         }
 
         @Override
         public long getItemId(int i) {
-            return i;
+            return MultiLevelListAdapter.this.getItemId(getNode(i));
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
         }
 
         @Override
         public View getView(int i, View convertView, ViewGroup viewGroup) {
-            Node node = mFlatItems.get(i);
-            return getViewForObject(node.getObject(), convertView, node.getItemInfo(), i);
+            Node node = getNode(i);
+            requestNextPageIfNeeded(node);
+            return getViewForObject(node.getObject(), convertView, mItemInfo.setNode(node), i);
+        }
+    }
+
+    /**
+     * Helper class used to display items hierarchy using RecyclerView.
+     *
+     * Views returned by getViewForObject are hosted in containers, so convertView contract is
+     * kept: the view bound previously by the holder is passed as convertView.
+     */
+    private class RecyclerProxyAdapter extends RecyclerView.Adapter<RecyclerProxyAdapter.ViewHolder> {
+
+        RecyclerProxyAdapter() {
+            setHasStableIds(true);
+        }
+
+        /**
+         * View holder with container for the view provided by getViewForObject.
+         */
+        class ViewHolder extends RecyclerView.ViewHolder {
+
+            private final FrameLayout mContainer;
+
+            ViewHolder(FrameLayout container) {
+                super(container);
+                mContainer = container;
+            }
+
+            /**
+             * Gets view provided by getViewForObject.
+             *
+             * @return The view or null if holder was not bound yet.
+             */
+            View getContentView() {
+                return (mContainer.getChildCount() > 0) ? mContainer.getChildAt(0) : null;
+            }
+
+            /**
+             * Sets view provided by getViewForObject.
+             *
+             * @param view The view.
+             */
+            void setContentView(View view) {
+                if (view == getContentView()) {
+                    return;
+                }
+                mContainer.removeAllViews();
+                mContainer.addView(view, new FrameLayout.LayoutParams(
+                        FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.WRAP_CONTENT));
+            }
+        }
+
+        @Override
+        public ViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+            FrameLayout container = new FrameLayout(viewGroup.getContext());
+            container.setLayoutParams(new RecyclerView.LayoutParams(
+                    RecyclerView.LayoutParams.MATCH_PARENT, RecyclerView.LayoutParams.WRAP_CONTENT));
+            final ViewHolder holder = new ViewHolder(container);
+            container.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int pos = holder.getBindingAdapterPosition();
+                    if (pos != RecyclerView.NO_POSITION && mView != null) {
+                        mView.performItemClick(holder.getContentView(), pos);
+                    }
+                }
+            });
+            container.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    int pos = holder.getBindingAdapterPosition();
+                    return pos != RecyclerView.NO_POSITION && mView != null
+                            && mView.performItemLongClick(holder.getContentView(), pos);
+                }
+            });
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int i) {
+            Node node = getNode(i);
+            requestNextPageIfNeeded(node);
+            holder.setContentView(getViewForObject(node.getObject(), holder.getContentView(), mItemInfo.setNode(node), i));
+        }
+
+        @Override
+        public long getItemId(int i) {
+            return MultiLevelListAdapter.this.getItemId(getNode(i));
+        }
+
+        @Override
+        public int getItemCount() {
+            return getFlatCount();
+        }
+    }
+
+    /**
+     * Loading of node sub-nodes started and not published yet.
+     */
+    private abstract class PendingLoad {
+
+        final Node mNode;
+        final Handler mHandler;
+        final SortOrder mSortOrder;
+        volatile boolean mIsCancelled;
+
+        /**
+         * Constructor.
+         *
+         * @param node Node which sub-nodes are loaded, root for data items.
+         */
+        PendingLoad(Node node) {
+            mNode = node;
+            mHandler = getMainHandler();
+            mSortOrder = MultiLevelListAdapter.this.mSortOrder;
+        }
+    }
+
+    /**
+     * Task building nodes on the executor.
+     *
+     * Built nodes are not reachable from displayed tree until they are published on the UI
+     * thread, so the published subtree is never modified concurrently.
+     */
+    private class NodeLoad extends PendingLoad implements Runnable {
+
+        private final List<?> mDataItems;
+        private final Stack<?> mExpandItems;
+        private final boolean mExpandAll;
+        private final int mMaxLevel;
+        private final NestType mNestType;
+        private final Object mObject;
+        private final RestoredState mRestoredState;
+        private List<Node> mResult;
+
+        /**
+         * Constructor.
+         *
+         * @param node Node which sub-nodes are built, root for data items.
+         * @param dataItems Data items, null if sub-objects of the node have to be used. They are
+         *                  copied, as source data changes on the UI thread while nodes are built.
+         * @param expandItems Hierarchy of data items to be expanded. Null is possible.
+         * @param expandAll Indicates if expandable nodes have to be extended (recursively).
+         * @param nestType NestType used when nodes are published, null for data items.
+         * @param restoredState Expansion state of previously displayed items. Null is possible.
+         */
+        NodeLoad(Node node, List<?> dataItems, Stack<?> expandItems, boolean expandAll, NestType nestType, RestoredState restoredState) {
+            this(node, dataItems, expandItems, expandAll, 0, nestType, restoredState);
+        }
+
+        /**
+         * Constructor of load building levels of the node subtree.
+         *
+         * @param node Node which sub-nodes are built.
+         * @param maxLevel Level from which nodes are not extended, paged nodes are not extended.
+         */
+        NodeLoad(Node node, int maxLevel) {
+            this(node, null, null, false, maxLevel, NestType.MULTIPLE, null);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param node Node which sub-nodes are built, root for data items.
+         * @param dataItems Data items, null if sub-objects of the node have to be used.
+         * @param expandItems Hierarchy of data items to be expanded. Null is possible.
+         * @param expandAll Indicates if expandable nodes have to be extended (recursively).
+         * @param maxLevel Level from which nodes are not extended unless expandAll is set.
+         * @param nestType NestType used when nodes are published, null for data items.
+         * @param restoredState Expansion state of previously displayed items. Null is possible.
+         */
+        private NodeLoad(Node node, List<?> dataItems, Stack<?> expandItems, boolean expandAll, int maxLevel, NestType nestType, RestoredState restoredState) {
+            super(node);
+            mDataItems = (dataItems != null) ? new ArrayList<>(dataItems) : null;
+            mExpandItems = expandItems;
+            mExpandAll = expandAll;
+            mMaxLevel = maxLevel;
+            mNestType = nestType;
+            mObject = node.getObject();
+            mRestoredState = restoredState;
+        }
+
+        @Override
+        public void run() {
+            if (mIsCancelled) {
+                return;
+            }
+            List<?> dataItems = (mDataItems != null) ? mDataItems : getSubObjects(mObject);
+            mResult = createNodeListFromDataItems(dataItems, mNode, mExpandItems, mExpandAll, mMaxLevel, mRestoredState);
+            if (mIsCancelled) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishLoad(NodeLoad.this);
+                }
+            });
+        }
+    }
+
+    /**
+     * Task filtering data items and building nodes of retained items.
+     */
+    private class FilterLoad extends PendingLoad implements Runnable, BooleanSupplier {
+
+        private final FilterResult mPrevious;
+        private final List<?> mDataItems;
+        private final Predicate<Object> mFilter;
+        private FilterResult mResult;
+        private List<Node> mNodes;
+
+        /**
+         * Constructor.
+         *
+         * @param previous Result of the filter narrowed by the filter, null if all data items
+         *                 have to be filtered.
+         * @param dataItems Data items. They are copied, as source data changes on the UI thread
+         *                  while the filtering runs on the executor.
+         * @param filter The filter.
+         */
+        FilterLoad(FilterResult previous, List<?> dataItems, Predicate<Object> filter) {
+            super(mRoot);
+            mPrevious = previous;
+            mDataItems = new ArrayList<>(dataItems);
+            mFilter = filter;
+        }
+
+        /**
+         * Filters items and builds nodes.
+         *
+         * @return true if nodes were built, false if filtering was cancelled.
+         */
+        boolean build() {
+            mResult = (mPrevious != null)
+                    ? mPrevious.refine(mFilter, this)
+                    : FilterResult.scan(MultiLevelListAdapter.this, mDataItems, mFilter, this);
+            if (mResult == null) {
+                return false;
+            }
+            mNodes = createFilteredNodeList(mResult.getRetainedObjects());
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (mIsCancelled || !build() || mIsCancelled) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishFilter(FilterLoad.this);
+                }
+            });
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            return mIsCancelled;
+        }
+    }
+
+    /**
+     * Request of a page of node sub-objects.
+     */
+    private class PageLoad extends PendingLoad implements PageCallback {
+
+        private boolean mIsDelivered;
+
+        /**
+         * Constructor.
+         *
+         * @param node Node which sub-objects are requested.
+         */
+        PageLoad(Node node) {
+            super(node);
+        }
+
+        @Override
+        public void onPageLoaded(final List<?> subObjects, final Object nextPageToken) {
+            if (!deliver()) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishPage(PageLoad.this, subObjects, nextPageToken);
+                }
+            });
+        }
+
+        @Override
+        public void onPageFailed() {
+            if (!deliver()) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    failPage(PageLoad.this);
+                }
+            });
+        }
+
+        /**
+         * Marks the page as delivered.
+         *
+         * @return true for the first delivery of not cancelled page, false otherwise.
+         */
+        private synchronized boolean deliver() {
+            if (mIsDelivered || mIsCancelled) {
+                return false;
+            }
+            mIsDelivered = true;
+            return true;
+        }
+    }
+
+    /**
+     * Expansion state and ids of items displayed before data items were set again. Expanded
+     * items are identified by keys, or by saved expansion bits.
+     *
+     * Collected on the UI thread and used only by a single build afterwards.
+     */
+    private static class RestoredState {
+
+        final Set<Object> mExpandedKeys = new HashSet<>();
+        final Map<Object, Long> mIds = new HashMap<>();
+        private final BitSet mExpandedBits;
+        private int mNextBit;
+
+        /**
+         * Constructor.
+         *
+         * @param expandedBits Saved expansion bits, null if expanded keys are used.
+         */
+        RestoredState(BitSet expandedBits) {
+            mExpandedBits = expandedBits;
+        }
+
+        /**
+         * Indicates if items are matched by keys.
+         *
+         * @return true if any previously displayed item has a key.
+         */
+        boolean isKeyed() {
+            return !mIds.isEmpty();
+        }
+
+        /**
+         * Tells if the next expandable item has to be expanded. Has to be called for every
+         * expandable item, in the order items are built.
+         *
+         * @param key Item key. Null is possible.
+         * @return true if item was expanded, false otherwise.
+         */
+        boolean takeExpanded(Object key) {
+            if (mExpandedBits != null) {
+                return mExpandedBits.get(mNextBit++);
+            }
+            return key != null && mExpandedKeys.contains(key);
+        }
+
+        /**
+         * Takes id of previously displayed item with the key. Each id is given once, so items
+         * with duplicated keys get distinct ids.
+         *
+         * @param key Item key.
+         * @return Item id or 0 if there is no such item.
+         */
+        long takeId(Object key) {
+            Long id = mIds.remove(key);
+            return (id != null) ? id : 0;
+        }
+    }
+
+    /**
+     * Level of nodes queued for building.
+     */
+    private static class NodeBuild {
+
+        final Node mNode;
+        final List<?> mDataItems;
+        final List<Node> mSubNodes;
+        final boolean mIsOnPath;
+
+        /**
+         * Constructor.
+         *
+         * @param node Parent of the level.
+         * @param dataItems Objects for which nodes have to be created.
+         * @param subNodes List receiving created nodes.
+         * @param isOnPath Indicates if the level lies on path of expanded items.
+         */
+        NodeBuild(Node node, List<?> dataItems, List<Node> subNodes, boolean isOnPath) {
+            mNode = node;
+            mDataItems = dataItems;
+            mSubNodes = subNodes;
+            mIsOnPath = isOnPath;
         }
     }
 }
@@ -18,30 +18,53 @@
 
 package com.example.myapplication.multilevellistview;
 
+import android.content.ClipData;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.view.DragEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.FrameLayout;
 import android.widget.ListView;
 
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
 import com.example.myapplication.R;
 
+import java.util.BitSet;
+
 /**
  * MultiLevelListView.
  */
 public class MultiLevelListView extends FrameLayout {
 
     private ListView mListView;
+    private RecyclerView mRecyclerView;
 
     private boolean mAlwaysExpanded;
     private NestType mNestType;
+    private ListEngine mEngine = ListEngine.LIST_VIEW;
+    private NodeStore mNodeStore = NodeStore.TREE;
 
     private MultiLevelListAdapter mAdapter;
     private OnItemClickListener mOnItemClickListener;
     private OnItemLongClickListener mOnItemLongClickListener;
+    private OnItemMoveListener mOnItemMoveListener;
+    private OnProxyItemClickListener mOnProxyItemClickListener = new OnProxyItemClickListener();
+    private OnProxyItemLongClickListener mOnProxyItemLongClickListener = new OnProxyItemLongClickListener();
+    private OnProxyDragListener mOnProxyDragListener = new OnProxyDragListener();
+    private boolean mDragAndDrop;
+    private Node mDraggedNode;
+    private final NodeItemInfo mItemInfo = new NodeItemInfo();
+    private BitSet mPendingExpansion;
+    private final TrimMemoryCallbacks mTrimMemoryCallbacks = new TrimMemoryCallbacks();
 
     /**
      * View constructor.
@@ -94,6 +117,30 @@ public class MultiLevelListView extends FrameLayout {
         }
     }
 
+    /**
+     * Gets node store used when view is always expanded.
+     *
+     * @return node store.
+     */
+    public NodeStore getNodeStore() {
+        return mNodeStore;
+    }
+
+    /**
+     * Sets node store used when view is always expanded.
+     *
+     * @param nodeStore desired node store.
+     */
+    public void setNodeStore(NodeStore nodeStore) {
+        if (mNodeStore == nodeStore) {
+            return;
+        }
+        mNodeStore = nodeStore;
+        if (mAdapter != null && mAlwaysExpanded) {
+            mAdapter.reloadData();
+        }
+    }
+
     /**
      * Sets view nesting type.
      *
@@ -116,6 +163,34 @@ public class MultiLevelListView extends FrameLayout {
         return mNestType;
     }
 
+    /**
+     * Gets view list engine.
+     *
+     * @return list engine.
+     */
+    public ListEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * Sets view list engine. Wrapped list is replaced and connected adapter is moved to the
+     * new list.
+     *
+     * @param engine desired list engine.
+     */
+    public void setEngine(ListEngine engine) {
+        if (mEngine == engine) {
+            return;
+        }
+        MultiLevelListAdapter adapter = mAdapter;
+        setAdapter(null);
+        removeView(getEngineView());
+        mEngine = engine;
+        setList(0);
+        attachList();
+        setAdapter(adapter);
+    }
+
     /**
      * Initializes view
      *
@@ -123,25 +198,50 @@ public class MultiLevelListView extends FrameLayout {
      */
     private void initView(AttributeSet attrs) {
         confWithAttributes(attrs);
+        attachList();
+    }
 
-        addView(mListView, new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
-        mListView.setOnItemClickListener(new OnProxyItemClickListener());
-        mListView.setOnItemLongClickListener(new OnProxyItemLongClickListener());
+    /**
+     * Adds wrapped list to the view and registers list callbacks.
+     */
+    private void attachList() {
+        addView(getEngineView(), new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+        getEngineView().setOnDragListener(mOnProxyDragListener);
+        if (mListView != null) {
+            mListView.setOnItemClickListener(mOnProxyItemClickListener);
+            mListView.setOnItemLongClickListener(mOnProxyItemLongClickListener);
+        }
     }
 
     /**
      * Sets Android ListView layout id or creates new when 0 is passed.
      *
+     * For RECYCLER_VIEW engine new RecyclerView is always created.
+     *
      * @param listLayoutId Android ListView layout id, 0 is possible.
      */
     private void setList(int listLayoutId) {
-        if (listLayoutId == 0) {
+        mListView = null;
+        mRecyclerView = null;
+        if (mEngine == ListEngine.RECYCLER_VIEW) {
+            mRecyclerView = new RecyclerView(getContext());
+            mRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        } else if (listLayoutId == 0) {
             mListView = new ListView(getContext());
         } else {
             mListView = (ListView) LayoutInflater.from(getContext()).inflate(listLayoutId, null);
         }
     }
 
+    /**
+     * Gets wrapped list used by current engine.
+     *
+     * @return Wrapped ListView or RecyclerView.
+     */
+    private View getEngineView() {
+        return (mRecyclerView != null) ? mRecyclerView : mListView;
+    }
+
     /**
      * Configurates view.
      *
@@ -150,8 +250,11 @@ public class MultiLevelListView extends FrameLayout {
     private void confWithAttributes(AttributeSet attrs) {
         TypedArray typedArray = getContext().obtainStyledAttributes(attrs, R.styleable.MultiLevelListView, 0, 0);
         try {
+            mNodeStore = NodeStore.fromValue(typedArray.getInt(R.styleable.MultiLevelListView_nodeStore, NodeStore.TREE.getValue()));
             setAlwaysExpanded(typedArray.getBoolean(R.styleable.MultiLevelListView_alwaysExtended, false));
+            mDragAndDrop = typedArray.getBoolean(R.styleable.MultiLevelListView_dragAndDrop, false);
             setNestType(NestType.fromValue(typedArray.getInt(R.styleable.MultiLevelListView_nestType, NestType.SINGLE.getValue())));
+            mEngine = ListEngine.fromValue(typedArray.getInt(R.styleable.MultiLevelListView_engine, ListEngine.LIST_VIEW.getValue()));
             setList(typedArray.getResourceId(R.styleable.MultiLevelListView_list, 0));
         } finally {
             typedArray.recycle();
@@ -175,6 +278,63 @@ public class MultiLevelListView extends FrameLayout {
         }
 
         adapter.registerView(this);
+        if (mPendingExpansion != null) {
+            adapter.restoreExpansion(mPendingExpansion);
+            mPendingExpansion = null;
+        }
+    }
+
+    /**
+     * Saves view state together with expansion state of displayed items.
+     *
+     * @return Saved state.
+     */
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState savedState = new SavedState(super.onSaveInstanceState());
+        savedState.mExpansion = (mAdapter != null) ? mAdapter.saveExpansion() : mPendingExpansion;
+        return savedState;
+    }
+
+    /**
+     * Restores view state. Expansion state is passed to the adapter, or kept until adapter is set.
+     *
+     * @param state Saved state.
+     */
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (savedState.mExpansion == null) {
+            return;
+        }
+        if (mAdapter != null) {
+            mAdapter.restoreExpansion(savedState.mExpansion);
+        } else {
+            mPendingExpansion = savedState.mExpansion;
+        }
+    }
+
+    /**
+     * Registers for memory trim events, used to trim adapter cache of collapsed items.
+     */
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
+    }
+
+    /**
+     * Unregisters from memory trim events.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        getContext().getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+        super.onDetachedFromWindow();
     }
 
     /**
@@ -195,6 +355,35 @@ public class MultiLevelListView extends FrameLayout {
         mOnItemLongClickListener = listener;
     }
 
+    /**
+     * Sets callback listener moving items dropped by drag and drop.
+     *
+     * @param listener Callback listener.
+     */
+    public void setOnItemMoveListener(OnItemMoveListener listener) {
+        mOnItemMoveListener = listener;
+    }
+
+    /**
+     * Indicates if items can be moved by drag and drop.
+     *
+     * @return true if drag and drop is enabled, false otherwise.
+     */
+    public boolean isDragAndDrop() {
+        return mDragAndDrop;
+    }
+
+    /**
+     * Enables moving items by drag and drop. Drag starts with long click of an item, dropped
+     * item is moved if OnItemMoveListener accepts the move. Not supported by always expanded
+     * view with VIRTUAL or ARENA node store.
+     *
+     * @param dragAndDrop true to enable drag and drop, false to disable.
+     */
+    public void setDragAndDrop(boolean dragAndDrop) {
+        mDragAndDrop = dragAndDrop;
+    }
+
     /**
      * Notifies adapter that data set changed.
      */
@@ -207,12 +396,42 @@ public class MultiLevelListView extends FrameLayout {
     /**
      * Gets wrapped Android ListView instance.
      *
-     * @return Wrapped Android ListView instance.
+     * @return Wrapped Android ListView instance, null for RECYCLER_VIEW engine.
      */
     public ListView getListView() {
         return mListView;
     }
 
+    /**
+     * Gets wrapped RecyclerView instance.
+     *
+     * @return Wrapped RecyclerView instance, null for LIST_VIEW engine.
+     */
+    public RecyclerView getRecyclerView() {
+        return mRecyclerView;
+    }
+
+    /**
+     * Handles click of the item displayed at the position.
+     *
+     * @param view Clicked view (provided by the adapter).
+     * @param position Clicked item position.
+     */
+    void performItemClick(View view, int position) {
+        mOnProxyItemClickListener.onItemClick(view, position);
+    }
+
+    /**
+     * Handles long click of the item displayed at the position.
+     *
+     * @param view Clicked view (provided by the adapter).
+     * @param position Clicked item position.
+     * @return true if the callback consumed the long click, false otherwise.
+     */
+    boolean performItemLongClick(View view, int position) {
+        return mOnProxyItemLongClickListener.onItemLongClick(view, position);
+    }
+
     /**
      * Helper class used to display created flat list of item's using Android's ListView.
      */
@@ -226,7 +445,7 @@ public class MultiLevelListView extends FrameLayout {
          */
         private void notifyItemClicked(View view, Node node) {
             if (mOnItemClickListener != null) {
-                mOnItemClickListener.onItemClicked(MultiLevelListView.this, view, node.getObject(), node.getItemInfo());
+                mOnItemClickListener.onItemClicked(MultiLevelListView.this, view, node.getObject(), mItemInfo.setNode(node));
             }
         }
 
@@ -238,7 +457,7 @@ public class MultiLevelListView extends FrameLayout {
          */
         private void notifyGroupItemClicked(View view, Node node) {
             if (mOnItemClickListener != null) {
-                mOnItemClickListener.onGroupItemClicked(MultiLevelListView.this, view, node.getObject(), node.getItemInfo());
+                mOnItemClickListener.onGroupItemClicked(MultiLevelListView.this, view, node.getObject(), mItemInfo.setNode(node));
             }
         }
 
@@ -258,6 +477,17 @@ public class MultiLevelListView extends FrameLayout {
          * @param itemIndex Clicked item index.
          */
         private void scrollToItemIfNeeded(int itemIndex) {
+            if (mRecyclerView != null) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+                int first = layoutManager.findFirstVisibleItemPosition();
+                int last = layoutManager.findLastVisibleItemPosition();
+
+                if ((itemIndex < first) || (itemIndex > last)) {
+                    mRecyclerView.smoothScrollToPosition(itemIndex);
+                }
+                return;
+            }
+
             int first = mListView.getFirstVisiblePosition();
             int last = mListView.getLastVisiblePosition();
 
@@ -273,7 +503,7 @@ public class MultiLevelListView extends FrameLayout {
          * @param node Clicked group node.
          */
         private void onGroupItemClicked(View view, Node node) {
-            boolean isExpanded = node.isExpanded();
+            boolean isExpanded = node.isExpanded() || node.isLoading();
             if (!isAlwaysExpanded()) {
                 if (isExpanded) {
                     mAdapter.collapseNode(node);
@@ -283,24 +513,37 @@ public class MultiLevelListView extends FrameLayout {
             }
 
             if (mNestType == NestType.SINGLE) {
-                scrollToItemIfNeeded(mAdapter.getFlatItems().indexOf(node));
+                scrollToItemIfNeeded(mAdapter.getFlatPos(node));
             }
 
             notifyGroupItemClicked(view, node);
         }
 
         /**
-         * Handles wrapped Android ListView item click event.
+         * Handles wrapped list item click event.
+         *
+         * @param view Clicked view (provided by the adapter).
+         * @param position Clicked item position.
          */
-        @Override
-        public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-            Node node = mAdapter.getFlatItems().get(position);
+        void onItemClick(View view, int position) {
+            Node node = mAdapter.getNode(position);
+            if (node == null) {
+                return;
+            }
             if (node.isExpandable()) {
                 onGroupItemClicked(view, node);
             } else {
                 onItemClicked(view, node);
             }
         }
+
+        /**
+         * Handles wrapped Android ListView item click event.
+         */
+        @Override
+        public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            onItemClick(view, position);
+        }
     }
 
 
@@ -317,7 +560,7 @@ public class MultiLevelListView extends FrameLayout {
          */
         private void notifyItemLongClicked(View view, Node node, int pos) {
             if (mOnItemLongClickListener != null) {
-                mOnItemLongClickListener.onItemLongClicked(MultiLevelListView.this, view, node.getObject(), node.getItemInfo(), pos);
+                mOnItemLongClickListener.onItemLongClicked(MultiLevelListView.this, view, node.getObject(), mItemInfo.setNode(node), pos);
             }
         }
 
@@ -331,15 +574,238 @@ public class MultiLevelListView extends FrameLayout {
             notifyItemLongClicked(view, node, pos);
         }
 
+        /**
+         * Handles wrapped list item long click event.
+         *
+         * @param view Clicked view (provided by the adapter).
+         * @param position Clicked item position.
+         * @return Always false, long click is not consumed.
+         */
+        boolean onItemLongClick(View view, int position) {
+            Node node = mAdapter.getNode(position);
+            if (node != null) {
+                onItemLongClicked(view, node, position);
+                if (isDragEnabled()) {
+                    return startItemDrag(view, node);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Indicates if items can be dragged.
+         *
+         * @return true if items can be dragged, false otherwise.
+         */
+        private boolean isDragEnabled() {
+            return mDragAndDrop && mOnItemMoveListener != null
+                    && (!mAlwaysExpanded || mNodeStore == NodeStore.TREE);
+        }
+
+        /**
+         * Starts drag of the node.
+         *
+         * @param view Dragged view (provided by the adapter).
+         * @param node Dragged node.
+         * @return true if drag started, false otherwise.
+         */
+        private boolean startItemDrag(View view, Node node) {
+            mDraggedNode = node;
+            boolean isStarted = view.startDragAndDrop(ClipData.newPlainText("", ""), new DragShadowBuilder(view), node, 0);
+            if (!isStarted) {
+                mDraggedNode = null;
+            }
+            return isStarted;
+        }
+
         /**
          * Handles wrapped Android ListView item long click event.
          */
         @Override
         public boolean onItemLongClick(AdapterView<?> adapterView, View view, int position, long l) {
-            Node node = mAdapter.getFlatItems().get(position);
-            onItemLongClicked(view, node, position);
-            return false;
+            return onItemLongClick(view, position);
+        }
+    }
+
+    /**
+     * Helper class moving items dropped on the wrapped list.
+     */
+    class OnProxyDragListener implements OnDragListener {
+
+        /**
+         * Gets view of item displayed at the point.
+         *
+         * @param x X coordinate within the wrapped list.
+         * @param y Y coordinate within the wrapped list.
+         * @return Item view, null if there is no item at the point.
+         */
+        private View getViewAt(float x, float y) {
+            if (mRecyclerView != null) {
+                return mRecyclerView.findChildViewUnder(x, y);
+            }
+            int position = mListView.pointToPosition((int) x, (int) y);
+            return (position != AdapterView.INVALID_POSITION)
+                    ? mListView.getChildAt(position - mListView.getFirstVisiblePosition()) : null;
+        }
+
+        /**
+         * Gets position of item displayed by the view.
+         *
+         * @param view Item view.
+         * @return Item position, negative if the view doesn't display an item.
+         */
+        private int getPosition(View view) {
+            if (mRecyclerView != null) {
+                return mRecyclerView.getChildAdapterPosition(view);
+            }
+            return mListView.getPositionForView(view);
+        }
+
+        /**
+         * Moves dragged node next to the item at the point. Dropped on the upper half of an
+         * item, the node is placed before it. Dropped on the lower half, it is placed after it
+         * or becomes the first sub-item of expanded item. Sorted items keep their order, the node
+         * dropped among them is placed by the sort order.
+         *
+         * @param x X coordinate within the wrapped list.
+         * @param y Y coordinate within the wrapped list.
+         * @return true if the node was moved, false otherwise.
+         */
+        private boolean dropItem(float x, float y) {
+            Node node = mDraggedNode;
+            View targetView = getViewAt(x, y);
+            int position = (targetView != null) ? getPosition(targetView) : -1;
+            Node target = (position >= 0) ? mAdapter.getNode(position) : null;
+            if (node == null || target == null) {
+                return false;
+            }
+            for (Node ancestor = target; ancestor != null; ancestor = ancestor.getParent()) {
+                if (ancestor == node) {
+                    return false;
+                }
+            }
+
+            boolean isBelow = y > targetView.getTop() + targetView.getHeight() / 2;
+            Node parent;
+            int index;
+            if (isBelow && target.isExpanded() && !target.getSubNodes().isEmpty()) {
+                parent = target;
+                index = 0;
+            } else {
+                parent = target.getParent();
+                index = target.getIdxInLevel() + (isBelow ? 1 : 0);
+            }
+            if (parent == node.getParent() && node.getIdxInLevel() < index) {
+                index--;
+            }
+            index = mAdapter.getDropIndex(parent, index, node);
+            if (index < 0) {
+                return false;
+            }
+
+            // parent of top level items has level -1
+            Object parentObj = (parent.getLevel() < 0) ? null : parent.getObject();
+            Object object = node.getObject();
+            if (!mOnItemMoveListener.onItemMoved(MultiLevelListView.this, object, parentObj, index)) {
+                return false;
+            }
+            mAdapter.moveItem(object, parentObj, index);
+            return true;
+        }
+
+        /**
+         * Handles drag events of the wrapped list. Only items dragged from this view are
+         * accepted.
+         */
+        @Override
+        public boolean onDrag(View v, DragEvent event) {
+            switch (event.getAction()) {
+                case DragEvent.ACTION_DRAG_STARTED:
+                    return mDraggedNode != null && event.getLocalState() == mDraggedNode;
+                case DragEvent.ACTION_DROP:
+                    return dropItem(event.getX(), event.getY());
+                case DragEvent.ACTION_DRAG_ENDED:
+                    mDraggedNode = null;
+                    return true;
+                default:
+                    return true;
+            }
         }
     }
-}
 
+    /**
+     * Helper class passing memory trim events to the adapter.
+     */
+    class TrimMemoryCallbacks implements ComponentCallbacks2 {
+
+        /**
+         * Trims adapter cache of collapsed items according to the trim level.
+         */
+        @Override
+        public void onTrimMemory(int level) {
+            if (mAdapter != null) {
+                mAdapter.trimCollapsedCache(level);
+            }
+        }
+
+        /**
+         * Clears adapter cache of collapsed items.
+         */
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    }
+
+    /**
+     * State of MultiLevelListView. Expansion state is kept as a bitset with one bit per
+     * displayed expandable item, see MultiLevelListAdapter.saveExpansion.
+     */
+    static class SavedState extends BaseSavedState {
+
+        private BitSet mExpansion;
+
+        /**
+         * Constructor.
+         *
+         * @param superState State of the super class.
+         */
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        /**
+         * Constructor used when state is read from the parcel.
+         *
+         * @param in The parcel.
+         */
+        private SavedState(Parcel in) {
+            super(in);
+            byte[] expansion = in.createByteArray();
+            mExpansion = (expansion != null) ? BitSet.valueOf(expansion) : null;
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeByteArray((mExpansion != null) ? mExpansion.toByteArray() : null);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+}
@@ -18,32 +18,50 @@
 
 package com.example.myapplication.multilevellistview;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * Class used to represent MultiLevelListView items. User objects are wrapped with this type.
+ *
+ * Each node tracks the number of its visible descendants, and keeps a Fenwick tree with row
+ * counts of its sub-nodes, so position of a node in displayed list (and node displayed at
+ * certain position) is resolved by walking the tree, without materializing list of rows.
  */
 class Node {
 
     private Object mObject;
+    private long mId;
     private int mLevel;
     private Node mParent;
     private List<Node> mSubNodes;
     private int mIdxInLevel;
     private int mLevelSize;
     private boolean mIsExpandable;
-    private NodeItemInfo mNodeItemInfo;
+    private int mVisibleCount;
+    private int[] mRowsTree;
+    private boolean mIsLoading;
+    private Object mNextPageToken;
+    private boolean mHasMorePages;
+    private int mSourceIdx;
+    private SortOrder mSortOrder;
+    private Object mSortKey;
 
     /**
      * Constructor.
      *
      * @param object Wrapped object.
      * @param parent Wrapped object parent. Null is possible.
+     * @param id Node id, unique within the adapter.
      */
-    Node(Object object, Node parent) {
+    Node(Object object, Node parent, long id) {
         mObject = object;
         mParent = parent;
         mLevel = parent.mLevel + 1;
+        mId = id;
     }
 
     /**
@@ -62,6 +80,15 @@ class Node {
         return mObject;
     }
 
+    /**
+     * Gets node id assigned when the node was created.
+     *
+     * @return Node id.
+     */
+    long getId() {
+        return mId;
+    }
+
     /**
      * Gets node level. Levels starts from 0.
      *
@@ -80,11 +107,25 @@ class Node {
         return mParent;
     }
 
+    /**
+     * Sets node parent and updates node level. Levels of sub-nodes are not updated.
+     *
+     * @param parent Node parent.
+     */
+    void setParent(Node parent) {
+        mParent = parent;
+        mLevel = parent.mLevel + 1;
+    }
+
     /**
      * Clears node sub-nodes (childs).
      */
     void clearSubNodes() {
         mSubNodes = null;
+        mRowsTree = null;
+        mNextPageToken = null;
+        mHasMorePages = false;
+        updateVisibleCount(0);
     }
 
     /**
@@ -93,14 +134,267 @@ class Node {
      * @param nodes List of sub-nodes.
      */
     void setSubNodes(List<Node> nodes) {
+        updateVisibleCount(attachSubNodes(nodes));
+    }
+
+    /**
+     * Sets sub-nodes (childs) of the node which is not attached to any parent yet.
+     *
+     * Only the node and its sub-nodes are touched, so nodes can be built off the UI thread.
+     *
+     * @param nodes List of sub-nodes.
+     */
+    void initSubNodes(List<Node> nodes) {
+        mVisibleCount = attachSubNodes(nodes);
+    }
+
+    /**
+     * Inserts a single sub-node (child) into expanded node.
+     *
+     * Only sub-nodes following the inserted one are renumbered, level size is taken from the
+     * sub-nodes list, so the remaining siblings are not touched.
+     *
+     * @param idx Sub-node index.
+     * @param node Inserted sub-node.
+     */
+    void insertSubNode(int idx, Node node) {
+        mSubNodes.add(idx, node);
+        final int NODES = mSubNodes.size();
+        for (int i = idx; i < NODES; ++i) {
+            mSubNodes.get(i).mIdxInLevel = i;
+        }
+
+        if (mRowsTree != null && idx == NODES - 1) {
+            // appended, Fenwick tree is extended instead of being rebuilt
+            int[] tree = Arrays.copyOf(mRowsTree, NODES + 1);
+            tree[NODES] = node.getRowCount() + getSubNodeOffset(NODES - 1)
+                    - getSubNodeOffset(NODES - (NODES & -NODES));
+            mRowsTree = tree;
+        } else {
+            mRowsTree = null;
+        }
+        updateVisibleCount(mVisibleCount + node.getRowCount());
+    }
+
+    /**
+     * Appends sub-nodes (childs) to expanded node, e.g. a loaded page. Only appended sub-nodes
+     * are numbered and the Fenwick tree is extended, so present sub-nodes are not touched.
+     *
+     * @param nodes Appended sub-nodes.
+     */
+    void appendSubNodes(List<Node> nodes) {
+        final int FIRST = mSubNodes.size();
+        int rowCount = 0;
+        for (Node node : nodes) {
+            node.mIdxInLevel = mSubNodes.size();
+            mSubNodes.add(node);
+            rowCount += node.getRowCount();
+        }
+
+        final int NODES = mSubNodes.size();
+        if (mRowsTree != null) {
+            mRowsTree = Arrays.copyOf(mRowsTree, NODES + 1);
+            for (int i = FIRST + 1; i <= NODES; ++i) {
+                mRowsTree[i] = mSubNodes.get(i - 1).getRowCount() + getSubNodeOffset(i - 1)
+                        - getSubNodeOffset(i - (i & -i));
+            }
+        }
+        updateVisibleCount(mVisibleCount + rowCount);
+    }
+
+    /**
+     * Removes a single sub-node (child) with its subtree.
+     *
+     * @param idx Sub-node index.
+     */
+    void removeSubNode(int idx) {
+        Node node = mSubNodes.remove(idx);
+        final int NODES = mSubNodes.size();
+        for (int i = idx; i < NODES; ++i) {
+            mSubNodes.get(i).mIdxInLevel = i;
+        }
+
+        if (mRowsTree != null && idx == NODES) {
+            // last one removed, remaining entries of Fenwick tree are not affected
+            mRowsTree = Arrays.copyOf(mRowsTree, NODES + 1);
+        } else {
+            mRowsTree = null;
+        }
+        updateVisibleCount(mVisibleCount - node.getRowCount());
+    }
+
+    /**
+     * Removes sub-nodes (childs) with their subtrees in a single pass.
+     *
+     * @param indices Indices of removed sub-nodes.
+     */
+    void removeSubNodes(BitSet indices) {
+        int first = indices.nextSetBit(0);
+        if (first < 0) {
+            return;
+        }
+        int removedRows = 0;
+        int idx = first;
+        final int NODES = mSubNodes.size();
+        for (int i = first; i < NODES; ++i) {
+            Node node = mSubNodes.get(i);
+            if (indices.get(i)) {
+                removedRows += node.getRowCount();
+            } else {
+                node.mIdxInLevel = idx;
+                mSubNodes.set(idx++, node);
+            }
+        }
+        mSubNodes.subList(idx, NODES).clear();
+        mRowsTree = null;
+        updateVisibleCount(mVisibleCount - removedRows);
+    }
+
+    /**
+     * Sorts sub-nodes (childs), visible count of the node doesn't change.
+     *
+     * @param order Order of sub-nodes.
+     */
+    void sortSubNodes(Comparator<Node> order) {
+        Collections.sort(mSubNodes, order);
+        final int NODES = mSubNodes.size();
+        for (int i = 0; i < NODES; ++i) {
+            mSubNodes.get(i).mIdxInLevel = i;
+        }
+        mRowsTree = null;
+    }
+
+    /**
+     * Stores sub-nodes and updates their index and level size.
+     *
+     * @param nodes List of sub-nodes.
+     * @return Number of visible descendants.
+     */
+    private int attachSubNodes(List<Node> nodes) {
         mSubNodes = nodes;
+        mRowsTree = null;
 
+        int visibleCount = 0;
         final int NODES = nodes.size();
         for (int i = 0; i < NODES; ++i) {
             Node node = nodes.get(i);
             node.mLevelSize = NODES;
             node.mIdxInLevel = i;
+            visibleCount += node.getRowCount();
+        }
+        return visibleCount;
+    }
+
+    /**
+     * Gets number of visible descendants, i.e. rows displayed below the node.
+     *
+     * @return Number of visible descendants.
+     */
+    int getVisibleCount() {
+        return mVisibleCount;
+    }
+
+    /**
+     * Gets number of rows occupied by the node and its visible descendants.
+     *
+     * @return Number of rows.
+     */
+    int getRowCount() {
+        return mVisibleCount + 1;
+    }
+
+    /**
+     * Sets number of visible descendants and propagates the difference to displayed ancestors.
+     *
+     * @param visibleCount New number of visible descendants.
+     */
+    private void updateVisibleCount(int visibleCount) {
+        int delta = visibleCount - mVisibleCount;
+        mVisibleCount = visibleCount;
+        if (delta == 0) {
+            return;
+        }
+        for (Node node = this; node.mParent != null; node = node.mParent) {
+            Node parent = node.mParent;
+            if (!parent.isSubNode(node)) {
+                return;
+            }
+            parent.mVisibleCount += delta;
+            if (parent.mRowsTree != null) {
+                for (int i = node.mIdxInLevel + 1; i < parent.mRowsTree.length; i += i & -i) {
+                    parent.mRowsTree[i] += delta;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates if the node is currently attached as a sub-node of this node.
+     *
+     * @param node The node.
+     * @return true if node is attached, false otherwise.
+     */
+    boolean isSubNode(Node node) {
+        return mSubNodes != null && node.mIdxInLevel < mSubNodes.size()
+                && mSubNodes.get(node.mIdxInLevel) == node;
+    }
+
+    /**
+     * Gets Fenwick tree with row counts of sub-nodes. The tree is built lazily.
+     *
+     * @return Fenwick tree, indexed from 1.
+     */
+    private int[] getRowsTree() {
+        if (mRowsTree == null) {
+            final int NODES = mSubNodes.size();
+            int[] tree = new int[NODES + 1];
+            for (int i = 1; i <= NODES; ++i) {
+                tree[i] += mSubNodes.get(i - 1).getRowCount();
+                int j = i + (i & -i);
+                if (j <= NODES) {
+                    tree[j] += tree[i];
+                }
+            }
+            mRowsTree = tree;
         }
+        return mRowsTree;
+    }
+
+    /**
+     * Gets number of rows displayed below this node and before the sub-node.
+     *
+     * @param idx Sub-node index.
+     * @return Number of rows.
+     */
+    int getSubNodeOffset(int idx) {
+        int[] tree = getRowsTree();
+        int offset = 0;
+        for (int i = idx; i > 0; i -= i & -i) {
+            offset += tree[i];
+        }
+        return offset;
+    }
+
+    /**
+     * Finds sub-node which subtree contains row with given offset.
+     *
+     * @param offset Row offset, counted from the first row below this node.
+     * @param outOffset Output parameter, receives row offset within found sub-node subtree
+     *                  (0 means the sub-node itself).
+     * @return Sub-node index.
+     */
+    int findSubNode(int offset, int[] outOffset) {
+        int[] tree = getRowsTree();
+        int idx = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = idx + step;
+            if (next < tree.length && tree[next] <= offset) {
+                idx = next;
+                offset -= tree[next];
+            }
+        }
+        outOffset[0] = offset;
+        return idx;
     }
 
     /**
@@ -130,12 +424,70 @@ class Node {
     }
 
     /**
-     * Gets level size.
+     * Gets index of wrapped object within sub-objects of parent object.
+     *
+     * @return Source index.
+     */
+    int getSourceIdx() {
+        return mSourceIdx;
+    }
+
+    /**
+     * Sets index of wrapped object within sub-objects of parent object.
+     *
+     * @param sourceIdx Source index.
+     */
+    void setSourceIdx(int sourceIdx) {
+        mSourceIdx = sourceIdx;
+    }
+
+    /**
+     * Gets order for which sort key was computed.
+     *
+     * @return Sort order, null if sort key was not computed.
+     */
+    SortOrder getSortOrder() {
+        return mSortOrder;
+    }
+
+    /**
+     * Gets cached sort key.
+     *
+     * @return Sort key.
+     */
+    Object getSortKey() {
+        return mSortKey;
+    }
+
+    /**
+     * Caches sort key computed for the order.
+     *
+     * @param order Sort order.
+     * @param sortKey Sort key.
+     */
+    void setSortKey(SortOrder order, Object sortKey) {
+        mSortOrder = order;
+        mSortKey = sortKey;
+    }
+
+    /**
+     * Sets node index within its level and level size, for node not attached to its parent.
+     *
+     * @param idxInLevel Node index within its level.
+     * @param levelSize Level size.
+     */
+    void setLocation(int idxInLevel, int levelSize) {
+        mIdxInLevel = idxInLevel;
+        mLevelSize = levelSize;
+    }
+
+    /**
+     * Gets level size. For node attached to its parent the size of parent sub-nodes list is used.
      *
      * @return Level size.
      */
     int getLevelSize() {
-        return mLevelSize;
+        return (mParent != null && mParent.isSubNode(this)) ? mParent.mSubNodes.size() : mLevelSize;
     }
 
     /**
@@ -148,15 +500,50 @@ class Node {
     }
 
     /**
-     * Get node info.
+     * Sets whether node sub-nodes are being loaded.
      *
-     * @return Node info.
+     * @param isLoading node loading value.
      */
-    NodeItemInfo getItemInfo() {
-        if (mNodeItemInfo == null) {
-            mNodeItemInfo = new NodeItemInfo(this);
-        }
-        return mNodeItemInfo;
+    void setLoading(boolean isLoading) {
+        mIsLoading = isLoading;
+    }
+
+    /**
+     * Indicates if node sub-nodes are being loaded.
+     *
+     * @return true if sub-nodes are being loaded, false otherwise.
+     */
+    boolean isLoading() {
+        return mIsLoading;
+    }
+
+    /**
+     * Sets token of the next page of sub-nodes.
+     *
+     * @param token Next page token.
+     * @param hasMorePages Indicates if there are more pages to load.
+     */
+    void setNextPage(Object token, boolean hasMorePages) {
+        mNextPageToken = token;
+        mHasMorePages = hasMorePages;
+    }
+
+    /**
+     * Gets token of the next page of sub-nodes.
+     *
+     * @return Next page token.
+     */
+    Object getNextPageToken() {
+        return mNextPageToken;
+    }
+
+    /**
+     * Indicates if there are more pages of sub-nodes to load.
+     *
+     * @return true if there are more pages, false otherwise.
+     */
+    boolean hasMorePages() {
+        return mHasMorePages;
     }
 
     /**
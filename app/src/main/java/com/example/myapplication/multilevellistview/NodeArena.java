@@ -0,0 +1,269 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows of always expanded list stored in primitive arrays.
+ *
+ * Whole hierarchy is flattened in pre-order, so each row is addressed by its position. Level,
+ * parent row, index in level, level size, flags and subtree end of each row are kept in int
+ * arrays. Sub-nodes of a row occupy rows from (row + 1) to subtree end, next sibling of
+ * a sub-node starts at its own subtree end. Nodes are created only for requested rows and kept
+ * in RowNodeCache.
+ */
+class NodeArena implements RowSource {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int NO_PARENT = -1;
+    private static final int FLAG_EXPANDABLE = 1;
+
+    private final MultiLevelListAdapter mAdapter;
+    private final List<?> mDataItems;
+    private final Node mRoot;
+
+    private int mCount;
+    private Object[] mObjects;
+    private int[] mLevels;
+    private int[] mParents;
+    private int[] mIdxInLevel;
+    private int[] mLevelSizes;
+    private int[] mFlags;
+    private int[] mEnds;
+
+    private final RowNodeCache mNodeCache;
+
+    /**
+     * Constructor.
+     *
+     * @param adapter Adapter providing sub-objects.
+     * @param dataItems Top level objects.
+     * @param root Root node, parent of nodes created for top level objects.
+     */
+    NodeArena(MultiLevelListAdapter adapter, List<?> dataItems, Node root) {
+        mAdapter = adapter;
+        mDataItems = dataItems;
+        mRoot = root;
+        mNodeCache = new RowNodeCache(adapter);
+        build();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public Node getNode(int flatPos) {
+        if (flatPos < 0 || flatPos >= mCount) {
+            return null;
+        }
+        Node node = mNodeCache.get(flatPos);
+        if (node != null) {
+            return node;
+        }
+
+        // climb to the closest ancestor with node created, then create nodes downwards
+        int[] chain = new int[mLevels[flatPos] + 1];
+        int chainSize = 0;
+        Node parent = mRoot;
+        for (int id = flatPos; id != NO_PARENT; id = mParents[id]) {
+            Node cached = mNodeCache.get(id);
+            if (cached != null) {
+                parent = cached;
+                break;
+            }
+            chain[chainSize++] = id;
+        }
+        for (int i = chainSize - 1; i >= 0; --i) {
+            parent = createNode(chain[i], parent);
+        }
+        return parent;
+    }
+
+    @Override
+    public int getFlatPos(Node node) {
+        if (node == mRoot) {
+            return -1;
+        }
+        int flatPos = mNodeCache.getFlatPos(node);
+        if (flatPos >= 0) {
+            return flatPos;
+        }
+
+        // node was evicted, climb to the closest cached ancestor, then find rows downwards
+        ArrayDeque<Node> chain = new ArrayDeque<>();
+        int parentPos = -1;
+        for (Node child = node; child != mRoot; child = child.getParent()) {
+            if (child == null) {
+                return -1;
+            }
+            parentPos = mNodeCache.getFlatPos(child);
+            if (parentPos >= 0) {
+                break;
+            }
+            chain.push(child);
+        }
+        while (!chain.isEmpty()) {
+            Node child = chain.pop();
+            int id = parentPos + 1;
+            int end = (parentPos >= 0) ? mEnds[parentPos] : mCount;
+            for (int i = 0; i < child.getIdxInLevel() && id < end; ++i) {
+                id = mEnds[id];
+            }
+            if (id >= end || mObjects[id] != child.getObject()) {
+                return -1;
+            }
+            parentPos = id;
+        }
+        return parentPos;
+    }
+
+    @Override
+    public int getFlatPos(List<?> path) {
+        int first = 0;
+        int end = mCount;
+        int id = -1;
+        for (Object object : path) {
+            id = -1;
+            for (int child = first; child < end; child = mEnds[child]) {
+                if (mObjects[child] == object) {
+                    id = child;
+                    break;
+                }
+            }
+            if (id < 0) {
+                return -1;
+            }
+            first = id + 1;
+            end = mEnds[id];
+        }
+        return id;
+    }
+
+    @Override
+    public void invalidate(Node node) {
+        // sub-trees are stored contiguously, so the arena is built again
+        build();
+        mNodeCache.clear();
+    }
+
+    /**
+     * Flattens hierarchy of data items into the arrays. Hierarchy is walked with an explicit stack.
+     */
+    private void build() {
+        mCount = 0;
+        allocate(Math.max(MIN_CAPACITY, mDataItems.size()));
+
+        ArrayDeque<Level> stack = new ArrayDeque<>();
+        stack.push(new Level(mDataItems, NO_PARENT));
+        while (!stack.isEmpty()) {
+            Level top = stack.peek();
+            if (top.mIdx == top.mSize) {
+                stack.pop();
+                if (top.mParentId != NO_PARENT) {
+                    mEnds[top.mParentId] = mCount;
+                }
+                continue;
+            }
+            int idx = top.mIdx++;
+            Object item = top.mItems.get(idx);
+            boolean isExpandable = mAdapter.isExpandable(item);
+
+            if (mCount == mObjects.length) {
+                allocate(mCount * 2);
+            }
+            int id = mCount++;
+            mObjects[id] = item;
+            mLevels[id] = stack.size() - 1;
+            mParents[id] = top.mParentId;
+            mIdxInLevel[id] = idx;
+            mLevelSizes[id] = top.mSize;
+            mFlags[id] = isExpandable ? FLAG_EXPANDABLE : 0;
+            mEnds[id] = id + 1;
+
+            if (isExpandable) {
+                stack.push(new Level(mAdapter.getSubObjects(item), id));
+            }
+        }
+    }
+
+    /**
+     * Resizes the arrays, keeping stored nodes.
+     *
+     * @param capacity New capacity.
+     */
+    private void allocate(int capacity) {
+        if (mObjects == null || mCount == 0) {
+            mObjects = new Object[capacity];
+            mLevels = new int[capacity];
+            mParents = new int[capacity];
+            mIdxInLevel = new int[capacity];
+            mLevelSizes = new int[capacity];
+            mFlags = new int[capacity];
+            mEnds = new int[capacity];
+            return;
+        }
+        mObjects = Arrays.copyOf(mObjects, capacity);
+        mLevels = Arrays.copyOf(mLevels, capacity);
+        mParents = Arrays.copyOf(mParents, capacity);
+        mIdxInLevel = Arrays.copyOf(mIdxInLevel, capacity);
+        mLevelSizes = Arrays.copyOf(mLevelSizes, capacity);
+        mFlags = Arrays.copyOf(mFlags, capacity);
+        mEnds = Arrays.copyOf(mEnds, capacity);
+    }
+
+    /**
+     * Creates node for the row.
+     *
+     * @param id Row position.
+     * @param parent Parent node.
+     * @return The node.
+     */
+    private Node createNode(int id, Node parent) {
+        boolean isExpandable = (mFlags[id] & FLAG_EXPANDABLE) != 0;
+        return mNodeCache.create(mObjects[id], parent, mIdxInLevel[id], mLevelSizes[id], isExpandable, id);
+    }
+
+    /**
+     * Level of objects being flattened.
+     */
+    private static class Level {
+
+        final List<?> mItems;
+        final int mSize;
+        final int mParentId;
+        int mIdx;
+
+        /**
+         * Constructor.
+         *
+         * @param items The items, null is possible.
+         * @param parentId Id of the node owning the items.
+         */
+        Level(List<?> items, int parentId) {
+            mItems = items;
+            mSize = (items != null) ? items.size() : 0;
+            mParentId = parentId;
+        }
+    }
+}
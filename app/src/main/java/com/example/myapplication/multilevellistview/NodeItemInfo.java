@@ -21,14 +21,22 @@ package com.example.myapplication.multilevellistview;
 /**
  * Class used to get information about list item and its location in MultiLevelListView.
  *
- * ItemInfo interface implementation.
+ * ItemInfo interface implementation. The info is a cursor delegating to the node it is set to,
+ * so a single instance is reused for all bound or clicked items.
  */
 class NodeItemInfo implements ItemInfo {
 
     private Node mNode;
 
-    public NodeItemInfo(Node node) {
+    /**
+     * Sets node the info delegates to.
+     *
+     * @param node The node.
+     * @return This info.
+     */
+    NodeItemInfo setNode(Node node) {
         mNode = node;
+        return this;
     }
 
     /**
@@ -81,4 +89,14 @@ class NodeItemInfo implements ItemInfo {
         return mNode.isExpandable();
     }
 
+    /**
+     * Gets info if node sub-nodes are being loaded.
+     *
+     * @return true if sub-nodes are being loaded, false otherwise.
+     */
+    @Override
+    public boolean isLoading() {
+        return mNode.isLoading();
+    }
+
 }
@@ -0,0 +1,82 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+/**
+ * Storage of items displayed by always expanded MultiLevelListView.
+ */
+public enum NodeStore {
+
+    /**
+     * Every item in the hierarchy is wrapped with a node when data items are set. All adapter
+     * operations are supported.
+     */
+    TREE(0),
+    /**
+     * Rows are computed on demand from source objects and revealed as the list is scrolled
+     * towards its end. Only row counts of recently visited items are cached, nodes are created
+     * for displayed rows only. Items can't be added, deleted, swapped
+     * or collapsed by the adapter; source objects are changed instead and data items are set again.
+     */
+    VIRTUAL(1),
+    /**
+     * Whole hierarchy is flattened once into primitive arrays, indexed by row. Rows are read
+     * without calls to the adapter, nodes are created for displayed rows only. Items can't be
+     * deleted, swapped or collapsed by the adapter, as with VIRTUAL store.
+     */
+    ARENA(2);
+
+    private int mValue;
+
+    /**
+     * Constructor.
+     *
+     * @param value node store value.
+     */
+    NodeStore(int value) {
+        mValue = value;
+    }
+
+    /**
+     * Gets node store value.
+     *
+     * @return Node store value.
+     */
+    public int getValue() {
+        return mValue;
+    }
+
+    /**
+     * Converts integer to node store.
+     *
+     * @param value node store as integer.
+     * @return Node store value.
+     */
+    public static NodeStore fromValue(int value) {
+        switch (value) {
+            case 1:
+                return VIRTUAL;
+            case 2:
+                return ARENA;
+            case 0:
+            default:
+                return TREE;
+        }
+    }
+}
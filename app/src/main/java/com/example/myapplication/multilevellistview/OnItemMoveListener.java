@@ -0,0 +1,37 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+/**
+ * Interface for handling MultiLevelListView drag and drop events.
+ */
+public interface OnItemMoveListener {
+
+    /**
+     * Method called when an item has been dropped at a new place. The listener moves the item
+     * within its data, the list is updated afterwards.
+     *
+     * @param parent The MultiLevelListView containing the dropped item
+     * @param item Object that was dropped
+     * @param newParent New parent object, null for top level items
+     * @param index Index of the item within sub-objects of the new parent
+     * @return true if the item was moved, false to cancel the move
+     */
+    boolean onItemMoved(MultiLevelListView parent, Object item, Object newParent, int index);
+}
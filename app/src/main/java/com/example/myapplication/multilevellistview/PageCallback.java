@@ -0,0 +1,43 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.List;
+
+/**
+ * Callback used to deliver page of sub-objects requested by MultiLevelListAdapter.
+ *
+ * Methods can be called on any thread. Only the first call is taken into account.
+ */
+public interface PageCallback {
+
+    /**
+     * Method called when page of sub-objects has been loaded.
+     *
+     * @param subObjects Sub-objects belonging to the page. Null is possible.
+     * @param nextPageToken Token of the next page, null if the page is the last one.
+     */
+    void onPageLoaded(List<?> subObjects, Object nextPageToken);
+
+    /**
+     * Method called when page of sub-objects couldn't be loaded. Loading of further pages
+     * stops until the object is extended again.
+     */
+    void onPageFailed();
+}
@@ -0,0 +1,190 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Nodes created by RowSource for recently requested rows, shared by VirtualRows and NodeArena.
+ *
+ * Ids of nodes are kept by their objects, so a node created again for the object, e.g. after
+ * rows were inserted above it, keeps its id and stable ids of the adapter hold. Ids are kept
+ * for a few times more objects than nodes, both caches are LRU bounded. Row counts computed
+ * by VirtualRows are kept by their objects in the same way.
+ */
+class RowNodeCache {
+
+    private static final int NODE_CACHE_SIZE = 256;
+    private static final int ID_CACHE_SIZE = 4 * NODE_CACHE_SIZE;
+
+    private final MultiLevelListAdapter mAdapter;
+    private final Map<Node, Integer> mPositions = new IdentityHashMap<>();
+    private final Map<Integer, Node> mNodes = new LinkedHashMap<Integer, Node>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Node> eldest) {
+            if (size() <= NODE_CACHE_SIZE) {
+                return false;
+            }
+            mPositions.remove(eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<IdentityKey, Long> mIds = new LinkedHashMap<IdentityKey, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IdentityKey, Long> eldest) {
+            return size() > ID_CACHE_SIZE;
+        }
+    };
+    private final Map<IdentityKey, Integer> mRowCounts = new LinkedHashMap<IdentityKey, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IdentityKey, Integer> eldest) {
+            return size() > ID_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param adapter Adapter generating node ids.
+     */
+    RowNodeCache(MultiLevelListAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Gets node created for the row.
+     *
+     * @param flatPos Row position.
+     * @return The node, null if it is not cached.
+     */
+    Node get(int flatPos) {
+        return mNodes.get(flatPos);
+    }
+
+    /**
+     * Gets position of cached node.
+     *
+     * @param node The node.
+     * @return Node position, -1 if the node is not cached.
+     */
+    int getFlatPos(Node node) {
+        Integer flatPos = mPositions.get(node);
+        return (flatPos != null) ? flatPos : -1;
+    }
+
+    /**
+     * Creates node for the row. Rows are always expanded, so sub-nodes of expandable node are
+     * not materialized.
+     *
+     * @param object Wrapped object.
+     * @param parent Parent node.
+     * @param idx Index of the object within its level.
+     * @param levelSize Level size.
+     * @param isExpandable Indicates if the object is expandable.
+     * @param flatPos Row position.
+     * @return The node.
+     */
+    Node create(Object object, Node parent, int idx, int levelSize, boolean isExpandable, int flatPos) {
+        IdentityKey key = new IdentityKey(object);
+        Long id = mIds.get(key);
+        if (id == null) {
+            id = mAdapter.nextNodeId();
+            mIds.put(key, id);
+        }
+        Node node = new Node(object, parent, id);
+        node.setLocation(idx, levelSize);
+        node.setExpandable(isExpandable);
+        if (isExpandable) {
+            node.initSubNodes(Collections.<Node>emptyList());
+        }
+        Node previous = mNodes.put(flatPos, node);
+        if (previous != null) {
+            mPositions.remove(previous);
+        }
+        mPositions.put(node, flatPos);
+        return node;
+    }
+
+    /**
+     * Gets number of rows below expandable object.
+     *
+     * @param object The object.
+     * @return Number of rows, null if it is not cached.
+     */
+    Integer getRowCount(Object object) {
+        return mRowCounts.get(new IdentityKey(object));
+    }
+
+    /**
+     * Keeps number of rows below expandable object.
+     *
+     * @param object The object.
+     * @param count Number of rows.
+     */
+    void putRowCount(Object object, int count) {
+        mRowCounts.put(new IdentityKey(object), count);
+    }
+
+    /**
+     * Drops number of rows below the object, after its sub-objects changed.
+     *
+     * @param object The object.
+     */
+    void removeRowCount(Object object) {
+        mRowCounts.remove(new IdentityKey(object));
+    }
+
+    /**
+     * Drops nodes after rows changed. Ids of their objects are kept.
+     */
+    void clear() {
+        mNodes.clear();
+        mPositions.clear();
+    }
+
+    /**
+     * Key comparing objects by reference, as the adapter does.
+     */
+    static final class IdentityKey {
+
+        private final Object mObject;
+
+        /**
+         * Constructor.
+         *
+         * @param object The object.
+         */
+        IdentityKey(Object object) {
+            mObject = object;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).mObject == mObject;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mObject);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.List;
+
+/**
+ * Rows of always expanded list provided without building the node tree.
+ *
+ * Nodes returned by the source are created for requested rows only, they are not attached to
+ * their parents. Node created again for the same object keeps its id, see RowNodeCache.
+ */
+interface RowSource {
+
+    /**
+     * Gets number of rows.
+     *
+     * @return Number of rows.
+     */
+    int getCount();
+
+    /**
+     * Gets node displayed at the position.
+     *
+     * @param flatPos Position in displayed list of items.
+     * @return The node or null if position is out of range.
+     */
+    Node getNode(int flatPos);
+
+    /**
+     * Gets position of the node.
+     *
+     * @param node The node.
+     * @return Node position or -1 if node doesn't belong to these rows.
+     */
+    int getFlatPos(Node node);
+
+    /**
+     * Gets position of the object.
+     *
+     * @param path Objects from top level object to the object.
+     * @return Object position or -1 if object is not found.
+     */
+    int getFlatPos(List<?> path);
+
+    /**
+     * Updates rows after sub-objects of the node changed. Nodes created so far are dropped.
+     *
+     * @param node The node.
+     */
+    void invalidate(Node node);
+}
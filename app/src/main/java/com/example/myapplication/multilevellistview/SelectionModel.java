@@ -0,0 +1,621 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Tri-state selection of items.
+ *
+ * Selecting or deselecting an item marks its whole subtree with a stamp, descendants are not
+ * visited. A mark is valid if it is newer than marks of all ancestors, so the selection of an
+ * item is given by the newest mark on the path from the top level item. Each item on the path
+ * to a mark keeps the count of marks below it which differ from selection of their parent,
+ * an item with such marks is partially selected. Both selection changes and state queries cost
+ * O(depth). When all sub-items of an item get the same selection through marks without marks
+ * below them, the item is marked too, so no descendant differs from it.
+ *
+ * Entries are kept for marked items and their ancestors only. Entries below a newer mark are
+ * stale and are dropped when they are visited.
+ */
+public class SelectionModel implements Iterable<Object> {
+
+    private final MultiLevelListAdapter mAdapter;
+    private final Map<Object, Entry> mEntries = new IdentityHashMap<>();
+    private final Entry mRootEntry = new Entry();
+    private long mStamp;
+
+    private final List<Object> mPathObjects = new ArrayList<>();
+    private final List<Entry> mPathEntries = new ArrayList<>();
+    private boolean mIsPathSelected;
+    private long mPathMarkStamp;
+    private final BitSet mPathUniform = new BitSet();
+
+    /**
+     * Constructor.
+     *
+     * @param adapter Adapter providing items.
+     */
+    SelectionModel(MultiLevelListAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Selects or deselects the item with all its descendants.
+     *
+     * @param object The item.
+     * @param selected true to select, false to deselect.
+     */
+    public void setSelected(Object object, boolean selected) {
+        if (mark(object, selected, false)) {
+            markUniformAncestors(object, selected);
+            mAdapter.notifySelectionChanged(object);
+        }
+    }
+
+    /**
+     * Selects the item with all its descendants, unless it is already selected. Otherwise
+     * the item is deselected.
+     *
+     * @param object The item.
+     */
+    public void toggle(Object object) {
+        setSelected(object, getState(object) != SelectionState.CHECKED);
+    }
+
+    /**
+     * Selects all items.
+     */
+    public void selectAll() {
+        markAll(true);
+        mAdapter.notifySelectionChanged(null);
+    }
+
+    /**
+     * Deselects all items.
+     */
+    public void clear() {
+        markAll(false);
+        mAdapter.notifySelectionChanged(null);
+    }
+
+    /**
+     * Indicates if the item is selected, regardless of its descendants.
+     *
+     * @param object The item.
+     * @return true if selected, false otherwise.
+     */
+    public boolean isSelected(Object object) {
+        resolvePath(object, false);
+        return mIsPathSelected;
+    }
+
+    /**
+     * Gets selection state of the item and its descendants.
+     *
+     * @param object The item.
+     * @return Selection state.
+     */
+    public SelectionState getState(Object object) {
+        resolvePath(object, false);
+        Entry entry = mPathEntries.get(mPathEntries.size() - 1);
+        if (entry != null && entry.mExceptions > 0) {
+            return SelectionState.PARTIAL;
+        }
+        return mIsPathSelected ? SelectionState.CHECKED : SelectionState.UNCHECKED;
+    }
+
+    /**
+     * Indicates if no item is selected. After all items were selected, the selection is empty
+     * when all top level items are deselected with their whole subtrees.
+     *
+     * @return true if no item is selected, false otherwise.
+     */
+    public boolean isEmpty() {
+        if (mRootEntry.mIsSelected) {
+            return mRootEntry.mUniform == mAdapter.getDataItems().size();
+        }
+        return mRootEntry.mExceptions == 0;
+    }
+
+    /**
+     * Iterates over selected items in pre-order. Subtrees without selected items are skipped
+     * and the selected set is not collected, so the selection must not change during iteration.
+     * Descendants of paged items are not traversed.
+     *
+     * @return Iterator of selected items.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        return new SelectedIterator();
+    }
+
+    /**
+     * Forgets selection of removed item and its descendants.
+     *
+     * @param object Removed item, its ancestors must still be resolvable.
+     */
+    void remove(Object object) {
+        resolvePath(object, false);
+        int last = mPathEntries.size() - 1;
+        Entry entry = mPathEntries.get(last);
+        if (entry != null) {
+            saveUniform();
+            mEntries.remove(object);
+            addToAncestors(last, -entry.mExceptions - (entry.mIsException ? 1 : 0));
+            updateUniform();
+        }
+    }
+
+    /**
+     * Detaches selection of the item and its descendants from ancestors of the item, before
+     * the item is moved. Entries of descendants are collected only if the item is partially
+     * selected.
+     *
+     * @param object The item, its ancestors must still be resolvable.
+     * @return Detached selection, to be passed to attach after the move.
+     */
+    MovedSelection detach(Object object) {
+        resolvePath(object, false);
+        int last = mPathEntries.size() - 1;
+        Entry entry = mPathEntries.get(last);
+        MovedSelection moved = new MovedSelection(mIsPathSelected);
+        if (entry != null) {
+            saveUniform();
+            if (entry.mExceptions > 0) {
+                moved.mExceptions = entry.mExceptions;
+                moved.mUniform = entry.mUniform;
+                collectSubtree(object, mPathMarkStamp, moved);
+            }
+            mEntries.remove(object);
+            addToAncestors(last, -entry.mExceptions - (entry.mIsException ? 1 : 0));
+            updateUniform();
+        }
+        return moved;
+    }
+
+    /**
+     * Attaches selection detached before the item was moved. Collected entries of descendants
+     * get new stamps in their original order, so they remain valid below the new ancestors.
+     *
+     * @param object The item, already moved.
+     * @param moved Detached selection.
+     */
+    void attach(Object object, MovedSelection moved) {
+        if (moved.mObjects.isEmpty()) {
+            // new mark hides entries left below the item
+            mark(object, moved.mIsSelected, true);
+            return;
+        }
+        resolvePath(object, true);
+        int last = mPathEntries.size() - 1;
+        Entry entry = mPathEntries.get(last);
+        saveUniform();
+        entry.mIsMarked = true;
+        entry.mIsSelected = moved.mIsSelected;
+        entry.mStamp = ++mStamp;
+        entry.mIsException = (moved.mIsSelected != mPathEntries.get(last - 1).mIsSelected);
+        entry.mExceptions = moved.mExceptions;
+        entry.mUniform = moved.mUniform;
+        addToAncestors(last, entry.mExceptions + (entry.mIsException ? 1 : 0));
+        updateUniform();
+
+        // equal stamps stay equal, entries created below a mark share its stamp
+        long oldStamp = -1;
+        for (int i = 0; i < moved.mObjects.size(); ++i) {
+            Entry subEntry = moved.mEntries.get(i);
+            if (subEntry.mStamp != oldStamp) {
+                oldStamp = subEntry.mStamp;
+                ++mStamp;
+            }
+            subEntry.mStamp = mStamp;
+            mEntries.put(moved.mObjects.get(i), subEntry);
+        }
+    }
+
+    /**
+     * Marks the item and its descendants as selected or deselected.
+     *
+     * @param object The item.
+     * @param selected true to select, false to deselect.
+     * @param force true to mark even if the item and its descendants are already selected
+     *              or deselected.
+     * @return true if the item was marked, false otherwise.
+     */
+    private boolean mark(Object object, boolean selected, boolean force) {
+        if (!force && getState(object) == (selected ? SelectionState.CHECKED : SelectionState.UNCHECKED)) {
+            return false;
+        }
+        resolvePath(object, true);
+        int last = mPathEntries.size() - 1;
+        Entry entry = mPathEntries.get(last);
+        saveUniform();
+        int delta = -entry.mExceptions - (entry.mIsException ? 1 : 0);
+
+        entry.mIsMarked = true;
+        entry.mIsSelected = selected;
+        entry.mStamp = ++mStamp;
+        entry.mExceptions = 0;
+        entry.mUniform = 0;
+        entry.mIsException = (selected != mPathEntries.get(last - 1).mIsSelected);
+        delta += entry.mIsException ? 1 : 0;
+        addToAncestors(last, delta);
+        updateUniform();
+        return true;
+    }
+
+    /**
+     * Marks ancestors of the marked item whose sub-items are all marked with the selection of
+     * the item, without marks below them. Ancestors without marks below them are passed, the
+     * mark may have removed the last mark differing from them. Paged ancestors are not marked,
+     * their sub-items are not known.
+     *
+     * @param object The marked item.
+     * @param selected Selection of the item.
+     */
+    private void markUniformAncestors(Object object, boolean selected) {
+        for (Object parent = mAdapter.getParentObject(object); parent != null; parent = mAdapter.getParentObject(parent)) {
+            Entry entry = mEntries.get(parent);
+            if (entry == null || entry.mExceptions == 0) {
+                continue;
+            }
+            if (entry.mUniform != entry.mExceptions || mAdapter.isPaged(parent)) {
+                return;
+            }
+            List<?> subObjects = mAdapter.getSubObjects(parent);
+            if (subObjects == null || subObjects.size() != entry.mUniform) {
+                return;
+            }
+            mark(parent, selected, true);
+        }
+    }
+
+    /**
+     * Indicates if the entry on the resolved path is marked differently than its parent, without
+     * marks below it, i.e. its whole subtree has the opposite selection of the parent.
+     *
+     * @param idx Index of the entry in mPathEntries, greater than 0.
+     * @return true if it is, false otherwise.
+     */
+    private boolean isUniform(int idx) {
+        Entry entry = mPathEntries.get(idx);
+        Object object = mPathObjects.get(mPathObjects.size() - idx);
+        return entry != null && entry.mIsMarked && entry.mIsException && entry.mExceptions == 0
+                && mEntries.get(object) == entry;
+    }
+
+    /**
+     * Saves which entries on the resolved path are uniform, before the path is changed.
+     */
+    private void saveUniform() {
+        mPathUniform.clear();
+        for (int i = 1; i < mPathEntries.size(); ++i) {
+            if (isUniform(i)) {
+                mPathUniform.set(i);
+            }
+        }
+    }
+
+    /**
+     * Updates counts of uniform sub-items of entries on the resolved path after it was changed.
+     */
+    private void updateUniform() {
+        for (int i = 1; i < mPathEntries.size(); ++i) {
+            boolean isUniform = isUniform(i);
+            Entry parent = mPathEntries.get(i - 1);
+            if (isUniform != mPathUniform.get(i) && parent != null) {
+                parent.mUniform += isUniform ? 1 : -1;
+            }
+        }
+    }
+
+    /**
+     * Adds the delta to counts of ancestors on the resolved path. Entries of ancestors which are
+     * neither marked nor have marks below are dropped.
+     *
+     * @param last Index of the item entry in mPathEntries.
+     * @param delta Change of number of marks differing from selection of their parent.
+     */
+    private void addToAncestors(int last, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        for (int i = last - 1; i >= 0; --i) {
+            Entry ancestor = mPathEntries.get(i);
+            if (ancestor != null) {
+                ancestor.mExceptions += delta;
+                if (i > 0 && ancestor.mExceptions == 0 && !ancestor.mIsMarked) {
+                    mEntries.remove(mPathObjects.get(mPathObjects.size() - i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects valid entries below the item, ordered by stamp, and drops all entries below it.
+     * Entries are found by resolving ancestors of all kept entries, which are few compared to
+     * the items in the subtree.
+     *
+     * @param object The item.
+     * @param markStamp Stamp of the newest mark of the item and its ancestors.
+     * @param moved Collected entries.
+     */
+    private void collectSubtree(Object object, long markStamp, MovedSelection moved) {
+        List<Object> subObjects = new ArrayList<>();
+        List<Object> path = new ArrayList<>();
+        for (Object key : mEntries.keySet()) {
+            path.clear();
+            Object item = key;
+            while (item != null && item != object) {
+                path.add(item);
+                item = mAdapter.getParentObject(item);
+            }
+            if (item == null || path.isEmpty()) {
+                continue;
+            }
+            subObjects.add(key);
+
+            long stamp = markStamp;
+            for (int i = path.size() - 1; i > 0; --i) {
+                Entry ancestor = mEntries.get(path.get(i));
+                if (ancestor != null && ancestor.mIsMarked && ancestor.mStamp > stamp) {
+                    stamp = ancestor.mStamp;
+                }
+            }
+            Entry entry = mEntries.get(key);
+            if (entry.mStamp >= stamp) {
+                moved.mObjects.add(key);
+            }
+        }
+
+        for (Object subObject : moved.mObjects) {
+            moved.mEntries.add(mEntries.get(subObject));
+        }
+        for (Object subObject : subObjects) {
+            mEntries.remove(subObject);
+        }
+        sortByStamp(moved);
+    }
+
+    /**
+     * Sorts collected entries by their stamps.
+     *
+     * @param moved Collected entries.
+     */
+    private static void sortByStamp(MovedSelection moved) {
+        final List<Entry> entries = moved.mEntries;
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer idx1, Integer idx2) {
+                return Long.compare(entries.get(idx1).mStamp, entries.get(idx2).mStamp);
+            }
+        });
+        List<Object> objects = new ArrayList<>(order.length);
+        List<Entry> sorted = new ArrayList<>(order.length);
+        for (Integer idx : order) {
+            objects.add(moved.mObjects.get(idx));
+            sorted.add(entries.get(idx));
+        }
+        moved.mObjects = objects;
+        moved.mEntries = sorted;
+    }
+
+    /**
+     * Deselects all items without notifying the adapter, used when data items are replaced.
+     */
+    void reset() {
+        markAll(false);
+    }
+
+    /**
+     * Sets selection of all items.
+     *
+     * @param selected true to select, false to deselect.
+     */
+    private void markAll(boolean selected) {
+        mEntries.clear();
+        mRootEntry.mIsMarked = true;
+        mRootEntry.mIsSelected = selected;
+        mRootEntry.mStamp = ++mStamp;
+        mRootEntry.mExceptions = 0;
+        mRootEntry.mUniform = 0;
+    }
+
+    /**
+     * Collects valid entries on the path from the root to the item, stale entries are dropped.
+     * After the call mPathEntries holds the root entry followed by entries of the top level
+     * ancestor down to the item, mPathObjects holds the item followed by its ancestors and
+     * mIsPathSelected is selection of the item, mPathMarkStamp is stamp of the mark in effect
+     * for its descendants. Entry of the item's parent holds its
+     * selection in mIsSelected.
+     *
+     * @param object The item.
+     * @param create true to create missing entries, false to leave null in their place.
+     */
+    private void resolvePath(Object object, boolean create) {
+        mPathObjects.clear();
+        mPathEntries.clear();
+        for (Object item = object; item != null; item = mAdapter.getParentObject(item)) {
+            mPathObjects.add(item);
+        }
+
+        long markStamp = mRootEntry.mStamp;
+        boolean isSelected = mRootEntry.mIsSelected;
+        mPathEntries.add(mRootEntry);
+        for (int i = mPathObjects.size() - 1; i >= 0; --i) {
+            Object item = mPathObjects.get(i);
+            Entry entry = mEntries.get(item);
+            if (entry != null && entry.mStamp < markStamp) {
+                mEntries.remove(item);
+                entry = null;
+            }
+            if (entry == null && create) {
+                entry = new Entry();
+                entry.mStamp = markStamp;
+                mEntries.put(item, entry);
+            }
+            if (entry != null) {
+                if (entry.mIsMarked) {
+                    markStamp = entry.mStamp;
+                    isSelected = entry.mIsSelected;
+                } else {
+                    entry.mIsSelected = isSelected;
+                }
+            }
+            mPathEntries.add(entry);
+        }
+        mIsPathSelected = isSelected;
+        mPathMarkStamp = markStamp;
+    }
+
+    /**
+     * Gets entry of the item if it is valid below the mark.
+     *
+     * @param object The item.
+     * @param markStamp Stamp of the newest mark of ancestors.
+     * @return The entry or null.
+     */
+    private Entry getValidEntry(Object object, long markStamp) {
+        Entry entry = mEntries.get(object);
+        return (entry != null && entry.mStamp >= markStamp) ? entry : null;
+    }
+
+    /**
+     * Selection data of an item.
+     */
+    private static class Entry {
+        /** Subtree of the item was selected or deselected with mStamp. */
+        boolean mIsMarked;
+        /** Selection of the item, for unmarked entries valid only after resolvePath. */
+        boolean mIsSelected;
+        /** Stamp of the mark, or of the newest ancestor mark when the entry was created. */
+        long mStamp;
+        /** The mark differs from selection of parent. */
+        boolean mIsException;
+        /** Number of valid marks below the item which differ from selection of their parent. */
+        int mExceptions;
+        /** Number of sub-items with marks differing from the item and without marks below. */
+        int mUniform;
+    }
+
+    /**
+     * Pre-order iterator of selected items.
+     */
+    private class SelectedIterator implements Iterator<Object> {
+
+        private final ArrayDeque<Frame> mStack = new ArrayDeque<>();
+        private Object mNext;
+
+        SelectedIterator() {
+            mStack.push(new Frame(mAdapter.getDataItems().iterator(), mRootEntry.mIsSelected, mRootEntry.mStamp));
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public Object next() {
+            if (mNext == null) {
+                throw new NoSuchElementException();
+            }
+            Object next = mNext;
+            advance();
+            return next;
+        }
+
+        /**
+         * Finds the next selected item.
+         */
+        private void advance() {
+            mNext = null;
+            while (mNext == null && !mStack.isEmpty()) {
+                Frame frame = mStack.peek();
+                if (!frame.mObjects.hasNext()) {
+                    mStack.pop();
+                    continue;
+                }
+                Object object = frame.mObjects.next();
+                Entry entry = getValidEntry(object, frame.mMarkStamp);
+                boolean isSelected = frame.mIsSelected;
+                long markStamp = frame.mMarkStamp;
+                if (entry != null && entry.mIsMarked) {
+                    isSelected = entry.mIsSelected;
+                    markStamp = entry.mStamp;
+                }
+                if (isSelected) {
+                    mNext = object;
+                }
+                boolean hasSelected = isSelected || (entry != null && entry.mExceptions > 0);
+                if (hasSelected && mAdapter.isExpandable(object) && !mAdapter.isPaged(object)) {
+                    List<?> subObjects = mAdapter.getSubObjects(object);
+                    if (subObjects != null && !subObjects.isEmpty()) {
+                        mStack.push(new Frame(subObjects.iterator(), isSelected, markStamp));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Selection of a moved item, detached from its former ancestors.
+     */
+    static class MovedSelection {
+        final boolean mIsSelected;
+        int mExceptions;
+        int mUniform;
+        List<Object> mObjects = new ArrayList<>();
+        List<Entry> mEntries = new ArrayList<>();
+
+        MovedSelection(boolean isSelected) {
+            mIsSelected = isSelected;
+        }
+    }
+
+    /**
+     * Traversal state of a sibling list.
+     */
+    private static class Frame {
+        final Iterator<?> mObjects;
+        final boolean mIsSelected;
+        final long mMarkStamp;
+
+        Frame(Iterator<?> objects, boolean isSelected, long markStamp) {
+            mObjects = objects;
+            mIsSelected = isSelected;
+            mMarkStamp = markStamp;
+        }
+    }
+}
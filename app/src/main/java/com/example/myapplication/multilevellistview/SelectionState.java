@@ -0,0 +1,39 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.multilevellistview;
+
+/**
+ * Selection states of items.
+ */
+public enum SelectionState {
+
+    /**
+     * UNCHECKED state. Neither the item nor any of its descendants is selected.
+     */
+    UNCHECKED,
+    /**
+     * CHECKED state. The item and all its descendants are selected.
+     */
+    CHECKED,
+    /**
+     * PARTIAL state. Only some of the item and its descendants are selected.
+     */
+    PARTIAL
+}
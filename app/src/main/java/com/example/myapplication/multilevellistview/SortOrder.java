@@ -0,0 +1,84 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * Order of sub-nodes defined by sort keys of wrapped objects.
+ *
+ * Sort key is computed once per node and kept in the node, so sorting and re-sorting of
+ * sub-nodes compares cached keys only. Nodes with equal keys keep their source order.
+ */
+class SortOrder implements Comparator<Node> {
+
+    /**
+     * Source order of sub-nodes, i.e. order of sub-objects.
+     */
+    static final Comparator<Node> SOURCE_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node first, Node second) {
+            return Integer.compare(first.getSourceIdx(), second.getSourceIdx());
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static final Comparator<Object> NATURAL_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object first, Object second) {
+            return ((Comparable<Object>) first).compareTo(second);
+        }
+    };
+
+    private final Function<Object, ?> mSortKey;
+    private final Comparator<Object> mComparator;
+
+    /**
+     * Constructor.
+     *
+     * @param sortKey Function computing sort key of the object.
+     * @param comparator Comparator of sort keys, null for natural order of keys.
+     */
+    @SuppressWarnings("unchecked")
+    <K> SortOrder(Function<Object, K> sortKey, Comparator<? super K> comparator) {
+        mSortKey = sortKey;
+        mComparator = (comparator != null) ? (Comparator<Object>) comparator : NATURAL_ORDER;
+    }
+
+    @Override
+    public int compare(Node first, Node second) {
+        int result = mComparator.compare(getSortKey(first), getSortKey(second));
+        return (result != 0) ? result : SOURCE_ORDER.compare(first, second);
+    }
+
+    /**
+     * Gets sort key of the node, the key is computed if it was not computed for this order.
+     *
+     * @param node The node.
+     * @return Sort key.
+     */
+    private Object getSortKey(Node node) {
+        if (node.getSortOrder() != this) {
+            node.setSortKey(this, mSortKey.apply(node.getObject()));
+        }
+        return node.getSortKey();
+    }
+}
@@ -0,0 +1,512 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows of always expanded list computed on demand from source objects.
+ *
+ * Rows are revealed in pre-order as they are reached: the hierarchy is walked a chunk of rows
+ * at a time and the walk stops at the frontier, so the number of rows grows while the list is
+ * scrolled towards its end, as it does for paged items. Levels on the path to the frontier keep
+ * prefix sums of row counts of their revealed sub-objects. Prefix sums of other levels are built
+ * for sub-objects of recently visited objects only, from row counts kept in RowNodeCache, so row
+ * at given position is found with binary search on each level, in O(depth * log(fan-out)).
+ * Memory is proportional to displayed levels, not to the size of the hierarchy. Nodes are
+ * created only for rows which are requested, and kept in RowNodeCache.
+ */
+class VirtualRows implements RowSource {
+
+    private static final int ROWS_CACHE_SIZE = 64;
+    private static final int REVEAL_SIZE = 256;
+
+    private final MultiLevelListAdapter mAdapter;
+    private final List<?> mDataItems;
+    private final Node mRoot;
+    private final Map<RowNodeCache.IdentityKey, int[]> mRowsCache =
+            new LinkedHashMap<RowNodeCache.IdentityKey, int[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RowNodeCache.IdentityKey, int[]> eldest) {
+            return size() > ROWS_CACHE_SIZE;
+        }
+    };
+    private int[] mRootRows;
+    private final List<Level> mFrontier = new ArrayList<>();
+    private int mCount;
+    private boolean mIsRevealPosted;
+    private final RowNodeCache mNodeCache;
+
+    private final Runnable mRevealRequest = new Runnable() {
+        @Override
+        public void run() {
+            mIsRevealPosted = false;
+            int count = mCount;
+            reveal(REVEAL_SIZE);
+            mAdapter.notifyRowsRevealed(VirtualRows.this, count, mCount - count);
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param adapter Adapter providing sub-objects.
+     * @param dataItems Top level objects.
+     * @param root Root node, parent of nodes created for top level objects.
+     */
+    VirtualRows(MultiLevelListAdapter adapter, List<?> dataItems, Node root) {
+        mAdapter = adapter;
+        mDataItems = dataItems;
+        mRoot = root;
+        mNodeCache = new RowNodeCache(adapter);
+        startReveal();
+        reveal(REVEAL_SIZE);
+    }
+
+    /**
+     * Gets number of rows revealed so far.
+     *
+     * @return Number of rows.
+     */
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets node displayed at the position. Reveal of next rows is posted when the position is
+     * close to the frontier.
+     *
+     * @param flatPos Position in displayed list of items.
+     * @return The node or null if position is out of range.
+     */
+    @Override
+    public Node getNode(int flatPos) {
+        if (flatPos < 0 || flatPos >= getCount()) {
+            return null;
+        }
+        if (!mFrontier.isEmpty() && flatPos >= mCount - REVEAL_SIZE / 4 && !mIsRevealPosted) {
+            // rows are appended by the reveal, so it is not made while rows are bound
+            mIsRevealPosted = true;
+            mAdapter.getMainHandler().post(mRevealRequest);
+        }
+        Node node = mNodeCache.get(flatPos);
+        if (node != null) {
+            return node;
+        }
+
+        Node parent = mRoot;
+        List<?> items = mDataItems;
+        int depth = 0;
+        Level level = getFrontierLevel(depth);
+        int[] rows = (level != null) ? level.mRows : mRootRows;
+        int offset = flatPos;
+        int parentPos = -1;
+        while (true) {
+            boolean isOnFrontier = (level != null && offset >= rows[level.mIdx]);
+            int idx = isOnFrontier ? level.mIdx : findRow(rows, (level != null) ? level.mIdx : rows.length - 1, offset);
+            Object object = items.get(idx);
+            int pos = parentPos + 1 + rows[idx];
+            node = mNodeCache.get(pos);
+            if (node == null) {
+                node = mNodeCache.create(object, parent, idx, items.size(), mAdapter.isExpandable(object), pos);
+            }
+            offset -= rows[idx];
+            if (offset == 0) {
+                return node;
+            }
+            // row lies in sub-objects of the object
+            offset--;
+            parent = node;
+            if (isOnFrontier) {
+                level = getFrontierLevel(++depth);
+                items = level.mItems;
+                rows = level.mRows;
+            } else {
+                level = null;
+                items = mAdapter.getSubObjects(object);
+                rows = getRows(object);
+            }
+            parentPos = pos;
+        }
+    }
+
+    /**
+     * Gets position of the node.
+     *
+     * @param node The node.
+     * @return Node position or -1 if node doesn't belong to revealed rows.
+     */
+    @Override
+    public int getFlatPos(Node node) {
+        int cachedPos = mNodeCache.getFlatPos(node);
+        if (cachedPos >= 0) {
+            return cachedPos;
+        }
+        int flatPos = -1;
+        for (Node child = node; child != mRoot; child = child.getParent()) {
+            Node parent = child.getParent();
+            if (parent == null) {
+                return -1;
+            }
+            Level level = findFrontierLevel(parent);
+            int[] rows;
+            int revealed;
+            if (level != null) {
+                rows = level.mRows;
+                // sub-object on the frontier is revealed if the frontier continues below it
+                revealed = (level != mFrontier.get(mFrontier.size() - 1)) ? level.mIdx + 1 : level.mIdx;
+            } else {
+                rows = (parent == mRoot) ? mRootRows : getRows(parent.getObject());
+                revealed = rows.length - 1;
+            }
+            if (child.getIdxInLevel() >= revealed) {
+                return -1;
+            }
+            flatPos += rows[child.getIdxInLevel()] + 1;
+        }
+        return flatPos;
+    }
+
+    /**
+     * Gets position of the object. Rows are revealed up to the object if it was not reached yet.
+     *
+     * @param path Objects from top level object to the object.
+     * @return Object position or -1 if object is not found.
+     */
+    @Override
+    public int getFlatPos(List<?> path) {
+        int count = mCount;
+        int flatPos = findFlatPos(path);
+        for (int size = REVEAL_SIZE; flatPos == -2; size *= 2) {
+            reveal(size);
+            flatPos = findFlatPos(path);
+        }
+        mAdapter.notifyRowsRevealed(this, count, mCount - count);
+        return flatPos;
+    }
+
+    /**
+     * Finds position of the object among revealed rows.
+     *
+     * @param path Objects from top level object to the object.
+     * @return Object position, -1 if object is not found, -2 if object is not revealed yet.
+     */
+    private int findFlatPos(List<?> path) {
+        List<?> items = mDataItems;
+        int depth = 0;
+        Level level = getFrontierLevel(depth);
+        int[] rows = (level != null) ? level.mRows : mRootRows;
+        int flatPos = -1;
+        for (Object object : path) {
+            if (items == null) {
+                return -1;
+            }
+            int idx = indexOf(items, object);
+            if (idx < 0) {
+                return -1;
+            }
+            boolean isOnFrontier = (level != null && idx == level.mIdx && depth < mFrontier.size() - 1);
+            if (level != null && idx >= level.mIdx && !isOnFrontier) {
+                return -2;
+            }
+            flatPos += rows[idx] + 1;
+            items = mAdapter.isExpandable(object) ? mAdapter.getSubObjects(object) : null;
+            if (isOnFrontier) {
+                level = getFrontierLevel(++depth);
+                rows = level.mRows;
+            } else {
+                level = null;
+                rows = (items != null) ? getRows(object) : null;
+            }
+        }
+        return flatPos;
+    }
+
+    /**
+     * Computes row counts of the node and its ancestors again, after sub-objects of the node
+     * changed. Counts of other objects are kept, rows are revealed again up to the former count.
+     * Nodes created so far are dropped.
+     *
+     * @param node The node.
+     */
+    @Override
+    public void invalidate(Node node) {
+        for (Node ancestor = node; ancestor != mRoot && ancestor != null; ancestor = ancestor.getParent()) {
+            mNodeCache.removeRowCount(ancestor.getObject());
+            mRowsCache.remove(new RowNodeCache.IdentityKey(ancestor.getObject()));
+        }
+        int count = mCount;
+        startReveal();
+        reveal(Math.max(count, REVEAL_SIZE));
+        mNodeCache.clear();
+    }
+
+    /**
+     * Starts walk revealing rows from the first top level object.
+     */
+    private void startReveal() {
+        mFrontier.clear();
+        mFrontier.add(new Level(null, mDataItems));
+        mRootRows = null;
+        mCount = 0;
+    }
+
+    /**
+     * Reveals next rows in pre-order. Subtrees with cached row counts are revealed at once,
+     * so the walk may pass the requested number of rows.
+     *
+     * @param size Requested number of rows.
+     */
+    private void reveal(int size) {
+        int end = mCount + size;
+        while (mCount < end && !mFrontier.isEmpty()) {
+            Level top = mFrontier.get(mFrontier.size() - 1);
+            if (top.mIdx == top.mSize) {
+                completeLevel();
+                continue;
+            }
+            Object item = top.mItems.get(top.mIdx);
+            mCount++;
+            int count = 1;
+            if (mAdapter.isExpandable(item)) {
+                Integer rows = mNodeCache.getRowCount(item);
+                if (rows == null) {
+                    List<?> subObjects = mAdapter.getSubObjects(item);
+                    if (subObjects != null && !subObjects.isEmpty()) {
+                        // item row is revealed, its sub-objects follow
+                        mFrontier.add(new Level(item, subObjects));
+                        continue;
+                    }
+                    rows = 0;
+                }
+                mCount += rows;
+                count += rows;
+            }
+            top.mRows[top.mIdx + 1] = top.mRows[top.mIdx] + count;
+            top.mIdx++;
+        }
+        // the top level of the frontier keeps sub-objects which are not revealed
+        while (!mFrontier.isEmpty() && mFrontier.get(mFrontier.size() - 1).mIdx == mFrontier.get(mFrontier.size() - 1).mSize) {
+            completeLevel();
+        }
+    }
+
+    /**
+     * Removes the top level of the frontier, all its sub-objects are revealed. Its prefix sums
+     * and row count are cached and its owner is passed in the parent level.
+     */
+    private void completeLevel() {
+        Level level = mFrontier.remove(mFrontier.size() - 1);
+        if (mFrontier.isEmpty()) {
+            mRootRows = level.mRows;
+            return;
+        }
+        int count = level.mRows[level.mSize];
+        mNodeCache.putRowCount(level.mOwner, count);
+        mRowsCache.put(new RowNodeCache.IdentityKey(level.mOwner), level.mRows);
+        Level parent = mFrontier.get(mFrontier.size() - 1);
+        parent.mRows[parent.mIdx + 1] = parent.mRows[parent.mIdx] + 1 + count;
+        parent.mIdx++;
+    }
+
+    /**
+     * Gets level of the frontier at the depth.
+     *
+     * @param depth Depth of the level, 0 for top level objects.
+     * @return The level or null if all rows are revealed.
+     */
+    private Level getFrontierLevel(int depth) {
+        return (depth < mFrontier.size()) ? mFrontier.get(depth) : null;
+    }
+
+    /**
+     * Finds level of the frontier with sub-objects of the node.
+     *
+     * @param node The node.
+     * @return The level or null if sub-objects of the node are not on the frontier.
+     */
+    private Level findFrontierLevel(Node node) {
+        if (node == mRoot) {
+            return getFrontierLevel(0);
+        }
+        for (int i = 1; i < mFrontier.size(); ++i) {
+            if (mFrontier.get(i).mOwner == node.getObject()) {
+                return mFrontier.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets prefix sums of sub-objects row counts of revealed expandable object.
+     *
+     * @param object The object.
+     * @return Prefix sums, the last element is number of rows below the object.
+     */
+    private int[] getRows(Object object) {
+        RowNodeCache.IdentityKey key = new RowNodeCache.IdentityKey(object);
+        int[] rows = mRowsCache.get(key);
+        if (rows == null) {
+            rows = computeRows(mAdapter.getSubObjects(object));
+            mRowsCache.put(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Computes prefix sums of row counts for the items.
+     *
+     * @param items The items, null is possible.
+     * @return Prefix sums of row counts.
+     */
+    private int[] computeRows(List<?> items) {
+        int[] rows = new int[(items != null ? items.size() : 0) + 1];
+        for (int i = 0; i < rows.length - 1; ++i) {
+            Object item = items.get(i);
+            rows[i + 1] = rows[i] + 1 + (mAdapter.isExpandable(item) ? getRowCount(item) : 0);
+        }
+        return rows;
+    }
+
+    /**
+     * Gets number of rows below revealed expandable object. Counts evicted from the cache are
+     * computed again.
+     *
+     * @param object The object.
+     * @return Number of rows.
+     */
+    private int getRowCount(Object object) {
+        Integer count = mNodeCache.getRowCount(object);
+        if (count == null) {
+            count = computeRowCount(object);
+        }
+        return count;
+    }
+
+    /**
+     * Counts rows below expandable object, caching counts of its expandable descendants.
+     * Hierarchy is walked with an explicit stack.
+     *
+     * @param object The object.
+     * @return Number of rows.
+     */
+    private int computeRowCount(Object object) {
+        ArrayDeque<Level> stack = new ArrayDeque<>();
+        stack.push(new Level(object, mAdapter.getSubObjects(object)));
+        int count = 0;
+        while (!stack.isEmpty()) {
+            Level top = stack.peek();
+            if (top.mIdx == top.mSize) {
+                stack.pop();
+                count = top.mRows[top.mSize];
+                mNodeCache.putRowCount(top.mOwner, count);
+                Level parent = stack.peek();
+                if (parent != null) {
+                    parent.mRows[parent.mIdx + 1] = parent.mRows[parent.mIdx] + 1 + count;
+                    parent.mIdx++;
+                }
+                continue;
+            }
+            Object item = top.mItems.get(top.mIdx);
+            int rows = 1;
+            if (mAdapter.isExpandable(item)) {
+                Integer subRows = mNodeCache.getRowCount(item);
+                if (subRows == null) {
+                    // count sub-objects first, the item is passed when they are counted
+                    stack.push(new Level(item, mAdapter.getSubObjects(item)));
+                    continue;
+                }
+                rows += subRows;
+            }
+            top.mRows[top.mIdx + 1] = top.mRows[top.mIdx] + rows;
+            top.mIdx++;
+        }
+        return count;
+    }
+
+    /**
+     * Finds index of the item which rows contain the offset.
+     *
+     * @param rows Prefix sums of row counts.
+     * @param size Number of items with prefix sums.
+     * @param offset Row offset.
+     * @return Item index.
+     */
+    private static int findRow(int[] rows, int size, int offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rows[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds index of the object in the list, comparing references.
+     *
+     * @param items The list.
+     * @param object The object.
+     * @return Object index or -1 if not found.
+     */
+    private static int indexOf(List<?> items, Object object) {
+        final int ITEMS = items.size();
+        for (int i = 0; i < ITEMS; ++i) {
+            if (items.get(i) == object) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Level of objects which rows are being counted or revealed.
+     */
+    private static class Level {
+
+        final Object mOwner;
+        final List<?> mItems;
+        final int mSize;
+        /** Prefix sums of row counts, valid up to mIdx. */
+        final int[] mRows;
+        int mIdx;
+
+        /**
+         * Constructor.
+         *
+         * @param owner Object owning the items, null for top level objects.
+         * @param items The items, null is possible.
+         */
+        Level(Object owner, List<?> items) {
+            mOwner = owner;
+            mItems = items;
+            mSize = (items != null) ? items.size() : 0;
+            mRows = new int[mSize + 1];
+        }
+    }
+}
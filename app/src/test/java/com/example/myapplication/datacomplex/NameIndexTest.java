@@ -0,0 +1,121 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.datacomplex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of lookup of items by their names.
+ */
+public class NameIndexTest {
+
+    private BaseItemComplex mFood;
+    private BaseItemComplex mFruits;
+    private BaseItemComplex mApples;
+    private BaseItemComplex mPineapples;
+    private BaseItemComplex mBread;
+    private BaseItemComplex mTransport;
+    private BaseItemComplex mBus;
+    private NameIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mApples = new BaseItemComplex("Apples");
+        mPineapples = new BaseItemComplex("Pineapples");
+        mFruits = item("Fruits", mApples, mPineapples);
+        mBread = new BaseItemComplex("Bread");
+        mFood = item("Food", mFruits, mBread);
+        mBus = new BaseItemComplex("Bus");
+        mTransport = item("Transport", mBus);
+        mIndex = new NameIndex(Arrays.asList(mFood, mTransport));
+    }
+
+    private static BaseItemComplex item(String name, BaseItemComplex... childrens) {
+        return new BaseItemComplex(name, 0.0, new ArrayList<>(Arrays.asList(childrens)));
+    }
+
+    @Test
+    public void shortQueryMatchesBeginningOfNames() {
+        assertEquals(Arrays.asList(mFood, mFruits), mIndex.find("f", 10));
+        assertEquals(Arrays.asList(mBread, mBus), mIndex.find("B", 10));
+        assertEquals(Collections.singletonList(mPineapples), mIndex.find("pi", 10));
+        // "ap" is within "Pineapples" only
+        assertEquals(Collections.singletonList(mApples), mIndex.find("ap", 10));
+        assertTrue(mIndex.find("x", 10).isEmpty());
+    }
+
+    @Test
+    public void longQueryMatchesWithinNames() {
+        assertEquals(Arrays.asList(mApples, mPineapples), mIndex.find("APPLE", 10));
+        assertEquals(Collections.singletonList(mPineapples), mIndex.find("eapp", 10));
+        assertEquals(Collections.singletonList(mTransport), mIndex.find("spor", 10));
+        // all grams are present, but not in sequence
+        assertTrue(mIndex.find("appbre", 10).isEmpty());
+        assertTrue(mIndex.find("apx", 10).isEmpty());
+    }
+
+    @Test
+    public void emptyQueryMatchesNothing() {
+        assertTrue(mIndex.find("", 10).isEmpty());
+    }
+
+    @Test
+    public void limitIsHonored() {
+        assertEquals(Collections.singletonList(mFood), mIndex.find("f", 1));
+        assertEquals(Collections.singletonList(mApples), mIndex.find("ples", 1));
+    }
+
+    @Test
+    public void pathLeadsFromTopLevelItem() {
+        assertEquals(Arrays.asList(mFood, mFruits, mPineapples), mIndex.getPath(mPineapples));
+        assertEquals(Collections.singletonList(mTransport), mIndex.getPath(mTransport));
+        assertTrue(mIndex.getPath(new BaseItemComplex("Bus")).isEmpty());
+    }
+
+    @Test
+    public void parentIsFound() {
+        assertSame(mFruits, mIndex.getParent(mApples));
+        assertSame(mTransport, mIndex.getParent(mBus));
+        assertNull(mIndex.getParent(mFood));
+        assertNull(mIndex.getParent(new BaseItemComplex("Apples")));
+    }
+
+    @Test
+    public void itemsWithSameNamesAreDistinct() {
+        List<BaseItemComplex> items = new ArrayList<>();
+        BaseItemComplex other = new BaseItemComplex("Apples");
+        items.add(mFruits);
+        items.add(other);
+        NameIndex index = new NameIndex(items);
+        assertEquals(Arrays.asList(other, mApples, mPineapples), index.find("apples", 10));
+        assertEquals(Collections.singletonList(other), index.getPath(other));
+    }
+}
@@ -0,0 +1,168 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.multilevellistview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static com.example.myapplication.multilevellistview.TreeAdapter.item;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of filter results and their refinement.
+ */
+public class FilterResultTest {
+
+    private static final BooleanSupplier NOT_CANCELLED = new BooleanSupplier() {
+        @Override
+        public boolean getAsBoolean() {
+            return false;
+        }
+    };
+
+    private TreeAdapter.Item mA;
+    private TreeAdapter.Item mAb;
+    private TreeAdapter.Item mAbc;
+    private TreeAdapter.Item mAd;
+    private TreeAdapter.Item mE;
+    private TreeAdapter.Item mEb;
+    private List<Object> mDataItems;
+    private TreeAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mAbc = item("abc");
+        mAb = item("ab", mAbc);
+        mAd = item("ad");
+        mA = item("a", mAb, mAd);
+        mEb = item("eb");
+        mE = item("e", mEb);
+        mDataItems = Arrays.<Object>asList(mA, mE);
+        mAdapter = new TreeAdapter();
+    }
+
+    /**
+     * Creates filter of items which names contain the text.
+     *
+     * @param text The text.
+     * @return The filter.
+     */
+    private static Predicate<Object> contains(final String text) {
+        return new Predicate<Object>() {
+            @Override
+            public boolean test(Object object) {
+                return ((TreeAdapter.Item) object).mName.contains(text);
+            }
+        };
+    }
+
+    private FilterResult scan(String text) {
+        return FilterResult.scan(mAdapter, mDataItems, contains(text), NOT_CANCELLED);
+    }
+
+    @Test
+    public void scanRetainsAncestorsOfMatches() {
+        FilterResult result = scan("b");
+        assertEquals(3, result.getMatchCount());
+
+        Map<Object, List<Object>> retained = result.getRetainedObjects();
+        assertEquals(Arrays.<Object>asList(mA, mE), retained.get(null));
+        assertEquals(Collections.<Object>singletonList(mAb), retained.get(mA));
+        assertEquals(Collections.<Object>singletonList(mAbc), retained.get(mAb));
+        assertEquals(Collections.<Object>singletonList(mEb), retained.get(mE));
+        assertTrue(result.isTraversed(mAdapter, mAbc));
+    }
+
+    @Test
+    public void refineAppliesFilterToMatchesOnly() {
+        FilterResult result = scan("b");
+        final int[] tested = new int[1];
+        FilterResult refined = result.refine(new Predicate<Object>() {
+            @Override
+            public boolean test(Object object) {
+                tested[0]++;
+                return ((TreeAdapter.Item) object).mName.contains("bc");
+            }
+        }, NOT_CANCELLED);
+
+        assertEquals(3, tested[0]);
+        assertEquals(1, refined.getMatchCount());
+        Map<Object, List<Object>> retained = refined.getRetainedObjects();
+        assertEquals(Collections.<Object>singletonList(mA), retained.get(null));
+        assertEquals(Collections.<Object>singletonList(mAb), retained.get(mA));
+        assertEquals(Collections.<Object>singletonList(mAbc), retained.get(mAb));
+        assertFalse(retained.containsKey(mE));
+        // the original result is not modified
+        assertEquals(3, result.getMatchCount());
+    }
+
+    @Test
+    public void refineMatchesScanWithNarrowerFilter() {
+        FilterResult refined = scan("a").refine(contains("ab"), NOT_CANCELLED);
+        FilterResult scanned = scan("ab");
+        assertEquals(scanned.getMatchCount(), refined.getMatchCount());
+        Map<Object, List<Object>> retained = refined.getRetainedObjects();
+        for (Map.Entry<Object, List<Object>> entry : scanned.getRetainedObjects().entrySet()) {
+            assertEquals(entry.getValue(), retained.get(entry.getKey()));
+        }
+        assertEquals(scanned.getRetainedObjects().size(), retained.size());
+    }
+
+    @Test
+    public void cancelledRefineGivesNoResult() {
+        FilterResult refined = scan("b").refine(contains("bc"), new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return true;
+            }
+        });
+        assertNull(refined);
+    }
+
+    @Test
+    public void removeDropsMatchesOfSubtree() {
+        FilterResult result = scan("b").remove(mAb);
+        assertEquals(1, result.getMatchCount());
+        assertEquals(Collections.<Object>singletonList(mE), result.getRetainedObjects().get(null));
+    }
+
+    @Test
+    public void insertKeepsPreOrderOfMatches() {
+        FilterResult result = scan("b");
+        TreeAdapter.Item inserted = item("db");
+        inserted.mParent = mA;
+        mA.mChildren.add(1, inserted);
+
+        FilterResult refined = result.insert(mAdapter, mDataItems, mA, inserted)
+                .refine(contains("b"), NOT_CANCELLED);
+        assertEquals(4, refined.getMatchCount());
+        assertEquals(Arrays.<Object>asList(mAb, inserted), refined.getRetainedObjects().get(mA));
+    }
+}
@@ -0,0 +1,225 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of row counts kept by nodes.
+ */
+public class NodeTest {
+
+    private Node mRoot;
+    private long mLastId;
+
+    @Before
+    public void setUp() {
+        mRoot = new Node();
+        mRoot.setSubNodes(new ArrayList<Node>());
+    }
+
+    /**
+     * Creates node which is not attached to the parent yet.
+     *
+     * @param name Name used as wrapped object.
+     * @param parent Parent node.
+     * @return The node.
+     */
+    private Node newNode(String name, Node parent) {
+        return new Node(name, parent, --mLastId);
+    }
+
+    /**
+     * Creates sub-nodes of the node.
+     *
+     * @param parent Parent node.
+     * @param count Number of sub-nodes.
+     * @return Copy of the sub-nodes, the node keeps the list itself.
+     */
+    private List<Node> addSubNodes(Node parent, int count) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            nodes.add(newNode("node" + i, parent));
+        }
+        parent.setSubNodes(nodes);
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * Checks sub-node offsets against row counts of the sub-nodes.
+     *
+     * @param node The node.
+     */
+    private static void assertOffsets(Node node) {
+        int offset = 0;
+        int[] outOffset = new int[1];
+        for (int i = 0; i < node.getSubNodes().size(); ++i) {
+            Node subNode = node.getSubNodes().get(i);
+            assertEquals(i, subNode.getIdxInLevel());
+            assertEquals(offset, node.getSubNodeOffset(i));
+            for (int row = 0; row < subNode.getRowCount(); ++row) {
+                assertEquals(i, node.findSubNode(offset + row, outOffset));
+                assertEquals(row, outOffset[0]);
+            }
+            offset += subNode.getRowCount();
+        }
+        assertEquals(offset, node.getVisibleCount());
+    }
+
+    @Test
+    public void setSubNodesCountsRowsOfAncestors() {
+        List<Node> topLevel = addSubNodes(mRoot, 3);
+        addSubNodes(topLevel.get(1), 4);
+        addSubNodes(topLevel.get(1).getSubNodes().get(2), 2);
+
+        assertEquals(7, topLevel.get(1).getRowCount());
+        assertEquals(9, mRoot.getVisibleCount());
+        assertEquals(1, topLevel.get(1).getSubNodes().get(2).getLevel());
+        assertOffsets(mRoot);
+        assertOffsets(topLevel.get(1));
+    }
+
+    @Test
+    public void insertSubNodeRenumbersFollowingSiblings() {
+        List<Node> topLevel = addSubNodes(mRoot, 3);
+        addSubNodes(topLevel.get(0), 2);
+        assertOffsets(mRoot);
+
+        Node inserted = newNode("inserted", mRoot);
+        addSubNodes(inserted, 3);
+        mRoot.insertSubNode(1, inserted);
+
+        assertSame(inserted, mRoot.getSubNodes().get(1));
+        assertEquals(3, topLevel.get(2).getIdxInLevel());
+        assertEquals(9, mRoot.getVisibleCount());
+        assertOffsets(mRoot);
+    }
+
+    @Test
+    public void appendedSubNodeExtendsOffsets() {
+        addSubNodes(mRoot, 5);
+        // offsets are computed before the append, so the tree is extended
+        assertOffsets(mRoot);
+        for (int i = 0; i < 4; ++i) {
+            Node appended = newNode("appended" + i, mRoot);
+            addSubNodes(appended, i);
+            mRoot.insertSubNode(mRoot.getSubNodes().size(), appended);
+            assertOffsets(mRoot);
+        }
+        assertEquals(15, mRoot.getVisibleCount());
+    }
+
+    @Test
+    public void appendSubNodesExtendsOffsets() {
+        List<Node> topLevel = addSubNodes(mRoot, 3);
+        List<Node> subNodes = addSubNodes(topLevel.get(1), 3);
+        assertOffsets(topLevel.get(1));
+
+        List<Node> page = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            Node appended = newNode("page" + i, topLevel.get(1));
+            addSubNodes(appended, i % 3);
+            page.add(appended);
+        }
+        topLevel.get(1).appendSubNodes(page);
+
+        assertEquals(2, subNodes.get(2).getIdxInLevel());
+        assertEquals(8, page.get(5).getIdxInLevel());
+        assertEquals(9, page.get(5).getLevelSize());
+        assertEquals(15, topLevel.get(1).getVisibleCount());
+        assertEquals(18, mRoot.getVisibleCount());
+        assertOffsets(topLevel.get(1));
+        assertOffsets(mRoot);
+    }
+
+    @Test
+    public void rowsOfDescendantsArePropagated() {
+        List<Node> topLevel = addSubNodes(mRoot, 2);
+        List<Node> subNodes = addSubNodes(topLevel.get(0), 2);
+        assertOffsets(mRoot);
+
+        addSubNodes(subNodes.get(1), 3);
+        assertEquals(5, topLevel.get(0).getVisibleCount());
+        assertEquals(7, mRoot.getVisibleCount());
+        assertOffsets(mRoot);
+
+        subNodes.get(1).clearSubNodes();
+        assertFalse(subNodes.get(1).isExpanded());
+        assertEquals(4, mRoot.getVisibleCount());
+        assertOffsets(mRoot);
+    }
+
+    @Test
+    public void removeSubNodeRemovesItsSubtree() {
+        List<Node> topLevel = addSubNodes(mRoot, 4);
+        addSubNodes(topLevel.get(1), 3);
+        addSubNodes(topLevel.get(3), 1);
+        assertOffsets(mRoot);
+
+        mRoot.removeSubNode(1);
+        assertEquals(4, mRoot.getVisibleCount());
+        assertFalse(mRoot.isSubNode(topLevel.get(1)));
+        assertEquals(1, topLevel.get(2).getIdxInLevel());
+        assertOffsets(mRoot);
+
+        // the last one removed
+        mRoot.removeSubNode(2);
+        assertEquals(2, mRoot.getVisibleCount());
+        assertOffsets(mRoot);
+    }
+
+    @Test
+    public void removeSubNodesRemovesAllIndices() {
+        List<Node> topLevel = addSubNodes(mRoot, 6);
+        addSubNodes(topLevel.get(0), 2);
+        addSubNodes(topLevel.get(4), 2);
+        BitSet indices = new BitSet();
+        indices.set(0);
+        indices.set(2);
+        indices.set(3);
+
+        mRoot.removeSubNodes(indices);
+        assertEquals(3, mRoot.getSubNodes().size());
+        assertSame(topLevel.get(4), mRoot.getSubNodes().get(1));
+        assertEquals(5, mRoot.getVisibleCount());
+        assertOffsets(mRoot);
+    }
+
+    @Test
+    public void detachedNodeDoesNotChangeParentRows() {
+        addSubNodes(mRoot, 2);
+        Node detached = newNode("detached", mRoot);
+        addSubNodes(detached, 3);
+
+        assertFalse(mRoot.isSubNode(detached));
+        assertEquals(3, detached.getVisibleCount());
+        assertEquals(2, mRoot.getVisibleCount());
+        assertTrue(detached.isExpanded());
+    }
+}
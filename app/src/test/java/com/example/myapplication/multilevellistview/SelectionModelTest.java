@@ -0,0 +1,172 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package com.example.myapplication.multilevellistview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.myapplication.multilevellistview.TreeAdapter.item;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of propagation of tri-state selection.
+ */
+public class SelectionModelTest {
+
+    private TreeAdapter.Item mA;
+    private TreeAdapter.Item mA1;
+    private TreeAdapter.Item mA1x;
+    private TreeAdapter.Item mA1y;
+    private TreeAdapter.Item mA2;
+    private TreeAdapter.Item mB;
+    private SelectionModel mSelection;
+
+    @Before
+    public void setUp() {
+        mA1x = item("a1x");
+        mA1y = item("a1y");
+        mA1 = item("a1", mA1x, mA1y);
+        mA2 = item("a2");
+        mA = item("a", mA1, mA2);
+        mB = item("b");
+        mSelection = new TreeAdapter(mA, mB).getSelectionModel();
+    }
+
+    @Test
+    public void selectedItemSelectsDescendants() {
+        mSelection.setSelected(mA1, true);
+
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA1));
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA1x));
+        assertTrue(mSelection.isSelected(mA1y));
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA));
+        assertFalse(mSelection.isSelected(mA));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA2));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mB));
+    }
+
+    @Test
+    public void deselectedDescendantMakesAncestorsPartial() {
+        mSelection.setSelected(mA, true);
+        mSelection.setSelected(mA1x, false);
+
+        assertTrue(mSelection.isSelected(mA));
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA));
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA1));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA1x));
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA1y));
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA2));
+
+        mSelection.setSelected(mA1x, true);
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA));
+    }
+
+    @Test
+    public void selectingAncestorOverridesDescendants() {
+        mSelection.setSelected(mA1x, true);
+        mSelection.setSelected(mA2, true);
+        mSelection.setSelected(mA, false);
+
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA1x));
+        assertTrue(mSelection.isEmpty());
+    }
+
+    @Test
+    public void selectedChildrenSelectParent() {
+        mSelection.setSelected(mA1x, true);
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA1));
+
+        mSelection.setSelected(mA1y, true);
+        assertTrue(mSelection.isSelected(mA1));
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA1));
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA));
+
+        // selection goes up through all uniform ancestors
+        mSelection.setSelected(mA2, true);
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mB));
+
+        mSelection.setSelected(mA1x, false);
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA1));
+        assertEquals(SelectionState.PARTIAL, mSelection.getState(mA));
+        assertTrue(mSelection.isSelected(mA));
+    }
+
+    @Test
+    public void deselectedChildrenDeselectParent() {
+        mSelection.setSelected(mA1, true);
+        mSelection.setSelected(mA1x, false);
+        mSelection.setSelected(mA1y, false);
+
+        assertFalse(mSelection.isSelected(mA1));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA1));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA));
+        assertTrue(mSelection.isEmpty());
+    }
+
+    @Test
+    public void toggleDeselectsCheckedItemOnly() {
+        mSelection.setSelected(mA1x, true);
+        mSelection.toggle(mA1);
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA1));
+
+        mSelection.toggle(mA1);
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA1));
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA));
+    }
+
+    @Test
+    public void selectAllAndClear() {
+        mSelection.selectAll();
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mA));
+        assertEquals(SelectionState.CHECKED, mSelection.getState(mB));
+        assertFalse(mSelection.isEmpty());
+
+        mSelection.setSelected(mA, false);
+        assertFalse(mSelection.isEmpty());
+        mSelection.setSelected(mB, false);
+        assertTrue(mSelection.isEmpty());
+
+        mSelection.selectAll();
+        mSelection.clear();
+        assertTrue(mSelection.isEmpty());
+        assertEquals(SelectionState.UNCHECKED, mSelection.getState(mA1y));
+    }
+
+    @Test
+    public void iteratorVisitsSelectedItemsInPreOrder() {
+        mSelection.setSelected(mA1, true);
+        mSelection.setSelected(mA1y, false);
+        mSelection.setSelected(mB, true);
+
+        List<Object> selected = new ArrayList<>();
+        for (Object object : mSelection) {
+            selected.add(object);
+        }
+        assertEquals(Arrays.<Object>asList(mA1, mA1x, mB), selected);
+    }
+}
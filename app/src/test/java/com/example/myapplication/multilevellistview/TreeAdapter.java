@@ -0,0 +1,102 @@
+/******************************************************************************
+ *
+ *  2016 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package com.example.myapplication.multilevellistview;
+
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Adapter of items built by tests. It is not attached to any view, so only the parts of
+ * the adapter which don't need a view are used.
+ */
+class TreeAdapter extends MultiLevelListAdapter {
+
+    /**
+     * Item of the test tree.
+     */
+    static class Item {
+
+        final String mName;
+        final List<Item> mChildren = new ArrayList<>();
+        Item mParent;
+
+        /**
+         * Constructor.
+         *
+         * @param name Item name.
+         */
+        Item(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * Creates item with the children.
+     *
+     * @param name Item name.
+     * @param children Child items.
+     * @return The item.
+     */
+    static Item item(String name, Item... children) {
+        Item item = new Item(name);
+        item.mChildren.addAll(Arrays.asList(children));
+        for (Item child : children) {
+            child.mParent = item;
+        }
+        return item;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dataItems Top level items.
+     */
+    TreeAdapter(Item... dataItems) {
+        // data items are set without a view, as setDataItems requires one
+        getDataItems().addAll(Arrays.asList(dataItems));
+    }
+
+    @Override
+    protected boolean isExpandable(Object object) {
+        return !((Item) object).mChildren.isEmpty();
+    }
+
+    @Override
+    protected List<?> getSubObjects(Object object) {
+        return ((Item) object).mChildren;
+    }
+
+    @Override
+    protected Object getParent(Object object) {
+        return ((Item) object).mParent;
+    }
+
+    @Override
+    protected View getViewForObject(Object object, View convertView, ItemInfo itemInfo, int pos) {
+        return convertView;
+    }
+}